@@ -0,0 +1,408 @@
+package me.lucko.gchat;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import me.lucko.gchat.api.ChatFormat;
+import me.lucko.gchat.api.events.GChatBroadcastEvent;
+import me.lucko.gchat.api.events.GChatMessageFormedEvent;
+import me.lucko.gchat.api.events.GChatMessageSendEvent;
+import me.lucko.gchat.config.GChatConfig;
+import me.lucko.gchat.push.PushEvent;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Handles accepted chat messages off the Velocity event thread.
+ *
+ * <p>Once {@link GChatListener} has decided a message is ours, the message goes
+ * through the format, recipient and fan-out stages on a bounded executor.
+ * Messages are formatted in parallel, but fanned out one at a time in the order
+ * they arrived by a single fan-out thread, so chat is never delivered out of
+ * order and the fan-out never runs on an event thread.
+ * Queueing delay and run time are recorded for every stage.</p>
+ */
+public class ChatPipeline {
+
+    public enum Stage {
+        ADMISSION,
+        FORMAT,
+        RECIPIENTS,
+        FANOUT
+    }
+
+    private final GChatPlugin plugin;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService fan_out;
+    private final Map<Stage, StageStats> stats = new HashMap<>();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    // completes once the last reserved message has been fanned out
+    private final Object order_lock = new Object();
+    private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+    public ChatPipeline(GChatPlugin plugin, int threads, int queue_size) {
+        this.plugin = plugin;
+
+        for (Stage stage : Stage.values()) {
+            this.stats.put(stage, new StageStats());
+        }
+
+        AtomicInteger thread_counter = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue_size),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "gChat Pipeline #" + thread_counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    if (pool.isShutdown()) {
+                        // let the message's future fail, so its place is given up
+                        throw new RejectedExecutionException("The chat pipeline was shut down");
+                    }
+
+                    // the queue is full: don't drop the message, format it on the submitting thread
+                    this.rejected.increment();
+                    runnable.run();
+                }
+        );
+
+        // a single thread keeps the order, messages wait for it without a limit
+        this.fan_out = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gChat Fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reserve the place of a chat message, as soon as it arrives.
+     * Its fan-out waits for every message reserved before it.
+     * The ticket must be either submitted or released
+     */
+    public Ticket reserve() {
+        Ticket ticket = new Ticket();
+
+        synchronized (this.order_lock) {
+            this.tail = this.tail
+                    .thenCombineAsync(ticket.prepared, (ignored, message) -> {
+                        if (message != null) {
+                            this.deliver(message);
+                        }
+
+                        return null;
+                    }, this.fan_out)
+                    // the chain must never break, or no message would be delivered anymore
+                    .handle((ignored, throwable) -> null);
+        }
+
+        return ticket;
+    }
+
+    /**
+     * Submit an accepted chat message to the pipeline
+     *
+     * @param ticket       the place that was reserved for the message
+     * @param sender       the player who sent the message
+     * @param format       the chat format that was selected during admission
+     * @param raw_message  the message as it was typed
+     */
+    public void submit(Ticket ticket, Player sender, ChatFormat format, String raw_message) {
+
+        Message message = new Message(sender, format, raw_message);
+        ticket.submitted = true;
+
+        CompletableFuture.runAsync(() -> this.format(message), this.executor)
+                .thenComposeAsync(ignored -> this.resolveRecipients(message), this.executor)
+                .whenComplete((ignored, throwable) -> {
+                    if (throwable != null) {
+                        this.fail(message, throwable);
+                        ticket.prepared.complete(null);
+                    } else {
+                        ticket.prepared.complete(message);
+                    }
+                });
+    }
+
+    /**
+     * Give up the place of a message that turned out not to be ours
+     */
+    public void release(Ticket ticket) {
+        if (!ticket.submitted) {
+            ticket.prepared.complete(null);
+        }
+    }
+
+    private void deliver(Message message) {
+        try {
+            this.fanOut(message);
+        } catch (Throwable t) {
+            // don't hold up the messages after this one
+            this.fail(message, t);
+        }
+    }
+
+    private void fail(Message message, Throwable throwable) {
+        this.failed.increment();
+        this.plugin.getLogger().error("Failed to handle chat message from " + message.sender.getUsername(), throwable);
+    }
+
+    /**
+     * Format stage: resolve the player's profile and render the message
+     */
+    private void format(Message message) {
+        long started = this.begin(message);
+
+        GChatConfig config = this.plugin.getConfig();
+        GChatPlayer gplayer = GChatPlayer.get(message.sender);
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("message", message.raw_message);
+        message.outgoing = gplayer.format("chat", parameters);
+
+        if (message.outgoing == null) {
+            this.plugin.getLogger().warn("Failed to format chat message from " + message.sender.getUsername());
+            message.cancelled = true;
+            this.end(Stage.FORMAT, message, started);
+            return;
+        }
+
+        parameters.put("message", "<aqua>" + message.raw_message);
+        message.self = gplayer.format("chat", parameters);
+
+        GChatMessageFormedEvent formed_event = new GChatMessageFormedEvent(message.sender, message.format, message.raw_message, message.outgoing);
+        this.plugin.getProxy().getEventManager().fireAndForget(formed_event);
+
+        if (config.isLogChatGlobal()) {
+            this.plugin.getLogger().info(PlainTextComponentSerializer.plainText().serialize(message.outgoing));
+        }
+
+        this.end(Stage.FORMAT, message, started);
+    }
+
+    /**
+     * Recipient stage: collect everyone who should receive the message and let listeners filter them
+     */
+    private CompletableFuture<Void> resolveRecipients(Message message) {
+
+        if (message.cancelled) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        long started = this.begin(message);
+
+        ProxyServer proxy = this.plugin.getProxy();
+        GChatConfig config = this.plugin.getConfig();
+
+        Set<Player> recipients = new LinkedHashSet<>();
+        for (Player p : proxy.getAllPlayers()) {
+            if (config.isRequireReceivePermission() && !p.hasPermission("gchat.receive")) {
+                continue;
+            }
+
+            recipients.add(p);
+        }
+
+        GChatBroadcastEvent broadcast_event = new GChatBroadcastEvent(message.sender, message.format, message.raw_message, message.outgoing, recipients);
+
+        return proxy.getEventManager().fire(broadcast_event).thenAccept(event -> {
+            if (!event.getResult().isAllowed()) {
+                message.cancelled = true;
+            }
+
+            message.recipients = new ArrayList<>(event.getRecipients());
+            this.end(Stage.RECIPIENTS, message, started);
+        });
+    }
+
+    /**
+     * Fan-out stage: send the message to every recipient
+     */
+    private void fanOut(Message message) {
+
+        if (message.cancelled) {
+            return;
+        }
+
+        long started = this.begin(message);
+
+        ProxyServer proxy = this.plugin.getProxy();
+        boolean per_recipient_events = this.plugin.getConfig().isPerRecipientEvents();
+        Player sender = message.sender;
+
+        // prepare both variants once, every recipient gets the same instance
+        PreparedMessage outgoing = PreparedMessage.of(sender, message.outgoing);
+        PreparedMessage self = message.self == null ? outgoing : PreparedMessage.of(sender, message.self);
+
+        for (Player p : message.recipients) {
+
+            // the old per-recipient event is opt-in, it costs one blocking dispatch per player
+            if (per_recipient_events) {
+                GChatMessageSendEvent send_event = new GChatMessageSendEvent(sender, p, message.format, message.raw_message, false);
+                proxy.getEventManager().fire(send_event).join();
+
+                if (!send_event.getResult().isAllowed()) {
+                    continue;
+                }
+            }
+
+            if (sender.getUniqueId().equals(p.getUniqueId())) {
+                self.sendTo(p);
+            } else {
+                outgoing.sendTo(p);
+            }
+        }
+
+        if (GChatPlugin.hasFeedSubscribers()) {
+            String formatted = PlainTextComponentSerializer.plainText().serialize(message.outgoing);
+            GChatPlugin.feedEvent(new PushEvent.ChatEvent(PushEvent.PlayerInfo.of(sender), message.raw_message, formatted, message.recipients.size()));
+        }
+
+        this.end(Stage.FANOUT, message, started);
+    }
+
+    private long begin(Message message) {
+        long now = System.nanoTime();
+        message.queued = now - message.handoff;
+        return now;
+    }
+
+    private void end(Stage stage, Message message, long started) {
+        long now = System.nanoTime();
+        this.record(stage, message.queued, now - started);
+        message.handoff = now;
+    }
+
+    /**
+     * Record the timings of a single stage
+     *
+     * @param stage        the stage that finished
+     * @param queue_nanos  how long the work waited before it started
+     * @param run_nanos    how long the work itself took
+     */
+    public void record(Stage stage, long queue_nanos, long run_nanos) {
+        this.stats.get(stage).record(queue_nanos, run_nanos);
+    }
+
+    /**
+     * Get human readable statistics, one line per stage
+     */
+    public List<String> getStats() {
+        List<String> result = new ArrayList<>();
+
+        result.add("Chat pipeline: " + this.executor.getQueue().size() + " queued, "
+                + this.executor.getActiveCount() + " active, "
+                + this.rejected.sum() + " formatted inline (queue full), "
+                + this.failed.sum() + " failed");
+
+        for (Stage stage : Stage.values()) {
+            result.add(" - " + stage.name().toLowerCase() + ": " + this.stats.get(stage));
+        }
+
+        return result;
+    }
+
+    /**
+     * Stop accepting messages and let the queued ones finish
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+
+        try {
+            this.executor.awaitTermination(5, TimeUnit.SECONDS);
+
+            // the last formatted messages are still delivered
+            this.fan_out.shutdown();
+            this.fan_out.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The place of a chat message in the order of delivery
+     */
+    public static class Ticket {
+        private final CompletableFuture<Message> prepared = new CompletableFuture<>();
+        private volatile boolean submitted = false;
+
+        private Ticket() {
+        }
+    }
+
+    /**
+     * A chat message moving through the pipeline
+     */
+    private static class Message {
+        private final Player sender;
+        private final ChatFormat format;
+        private final String raw_message;
+
+        private TextComponent outgoing = null;
+        private TextComponent self = null;
+        private List<Player> recipients = null;
+        private boolean cancelled = false;
+
+        // when the previous stage handed this message over, and how long it then waited
+        private long handoff = System.nanoTime();
+        private long queued = 0;
+
+        private Message(Player sender, ChatFormat format, String raw_message) {
+            this.sender = sender;
+            this.format = format;
+            this.raw_message = raw_message;
+        }
+    }
+
+    private static class StageStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder queue_nanos = new LongAdder();
+        private final LongAdder run_nanos = new LongAdder();
+        private final AtomicLong max_queue_nanos = new AtomicLong();
+
+        private void record(long queue_nanos, long run_nanos) {
+            this.count.increment();
+            this.queue_nanos.add(queue_nanos);
+            this.run_nanos.add(run_nanos);
+            this.max_queue_nanos.accumulateAndGet(queue_nanos, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            long count = this.count.sum();
+
+            if (count == 0) {
+                return "no messages";
+            }
+
+            return String.format("%d messages, avg queue %.2fms (max %.2fms), avg run %.2fms",
+                    count,
+                    this.queue_nanos.sum() / (double) count / 1_000_000d,
+                    this.max_queue_nanos.get() / 1_000_000d,
+                    this.run_nanos.sum() / (double) count / 1_000_000d);
+        }
+    }
+}
@@ -35,6 +35,7 @@ import net.kyori.adventure.text.TextComponent;
 import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.format.TextDecoration;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -80,6 +81,41 @@ public class GChatCommand implements SimpleCommand {
             return;
         }
 
+        if (subCommand.equals("snapshot") && source.hasPermission("gchat.command.snapshot")) {
+            TextComponent snapshotMsg;
+
+            if (GChatPlugin.shouldPushEvents()) {
+                plugin.getPlayerListTracker().sendSnapshot();
+                snapshotMsg = PREFIX.append(Component.text("Pushed the full player list.").color(NamedTextColor.GREEN).decoration(TextDecoration.BOLD, false));
+            } else {
+                snapshotMsg = PREFIX.append(Component.text("Pushing events is disabled.").color(NamedTextColor.RED).decoration(TextDecoration.BOLD, false));
+            }
+
+            source.sendMessage(snapshotMsg);
+            return;
+        }
+
+        if (subCommand.equals("stats") && source.hasPermission("gchat.command.stats")) {
+            source.sendMessage(PREFIX.append(Component.text("Statistics").color(NamedTextColor.WHITE).decoration(TextDecoration.BOLD, false)));
+
+            List<String> lines = new ArrayList<>(plugin.getChatPipeline().getStats());
+            lines.addAll(GChatPlayer.SESSIONS.getStats());
+            lines.addAll(plugin.getProfileStorage().getStats());
+            lines.addAll(plugin.getMetrics().getStats());
+            lines.addAll(plugin.getPushDispatcher().getStats());
+            lines.addAll(plugin.getPlayerListTracker().getStats());
+
+            if (plugin.getEventFeed() != null) {
+                lines.addAll(plugin.getEventFeed().getStats());
+            }
+
+            for (String line : lines) {
+                source.sendMessage(Component.text(line).color(NamedTextColor.GRAY));
+            }
+
+            return;
+        }
+
         TextComponent unknownCommand = PREFIX.append(Component.text("Unknown sub command.").color(NamedTextColor.WHITE).decoration(TextDecoration.BOLD, false));
         source.sendMessage(unknownCommand);
     }
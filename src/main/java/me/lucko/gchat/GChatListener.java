@@ -25,7 +25,7 @@
 
 package me.lucko.gchat;
 
-import com.google.gson.JsonObject;
+import com.velocitypowered.api.event.EventTask;
 import com.velocitypowered.api.event.PostOrder;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.connection.DisconnectEvent;
@@ -39,9 +39,8 @@ import com.velocitypowered.api.proxy.server.RegisteredServer;
 import com.velocitypowered.api.proxy.server.ServerInfo;
 import me.lucko.gchat.api.ChatFormat;
 import me.lucko.gchat.api.events.GChatEvent;
-import me.lucko.gchat.api.events.GChatMessageFormedEvent;
-import me.lucko.gchat.api.events.GChatMessageSendEvent;
 import me.lucko.gchat.config.GChatConfig;
+import me.lucko.gchat.push.PushEvent;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.TextComponent;
 import net.kyori.adventure.text.event.ClickEvent;
@@ -49,10 +48,10 @@ import net.kyori.adventure.text.event.HoverEvent;
 import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
-import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 public class GChatListener {
@@ -77,11 +76,17 @@ public class GChatListener {
     public void onLogin(LoginEvent e) {
         Player player = e.getPlayer();
 
-        if (GChatPlugin.shouldPushEvents()) {
-            JsonObject object = GChatPlugin.createObject("login", player);
-            GChatPlugin.pushEvent(object);
+        if (GChatPlugin.shouldEmitEvents()) {
+            GChatPlugin.pushEvent(new PushEvent.PlayerEvent("login", player));
         }
 
+        // Load the player's profile in the background,
+        // the login message needs it so it is sent once that is done
+        GChatPlayer.SESSIONS.login(player).whenComplete((gplayer, throwable) -> this.broadcastLogin(player));
+    }
+
+    private void broadcastLogin(Player player) {
+
         ChatFormat format = plugin.getFormat(player, "login").orElse(null);
 
         if (format == null) {
@@ -97,15 +102,15 @@ public class GChatListener {
     public void onJoinServer(ServerConnectedEvent e) {
         Player player = e.getPlayer();
 
-        // Force clear the cached player
-        GChatPlayer.remove(player);
+        // The profile is kept, LuckPerms tells us when it changes.
+        // Only clear the placeholder values of the previous server
+        plugin.getPlaceholderRegistry().getCache().invalidate(player.getUniqueId());
 
         RegisteredServer server = e.getServer();
         ServerInfo info = server.getServerInfo();
 
-        if (GChatPlugin.shouldPushEvents()) {
-            JsonObject object = GChatPlugin.createObject("join", player);
-            GChatPlugin.pushEvent(object);
+        if (GChatPlugin.shouldEmitEvents()) {
+            GChatPlugin.pushEvent(new PushEvent.PlayerEvent("join", player));
         }
 
         ChatFormat format = plugin.getFormat(player, "join").orElse(null);
@@ -123,34 +128,55 @@ public class GChatListener {
     public void onLogout(DisconnectEvent e) {
         Player player = e.getPlayer();
 
-        if (GChatPlugin.shouldPushEvents()) {
-            JsonObject object = GChatPlugin.createObject("logout", player);
-            GChatPlugin.pushEvent(object);
+        if (GChatPlugin.shouldEmitEvents()) {
+            GChatPlugin.pushEvent(new PushEvent.PlayerEvent("logout", player));
         }
 
         ChatFormat format = plugin.getFormat(player, "logout").orElse(null);
 
-        GChatPlayer.remove(player);
+        // render the message while the session still exists
+        TextComponent message = format == null ? null : this.createFormattedText(player, format, "");
 
-        if (format == null) {
+        GChatPlayer.SESSIONS.logout(player);
+
+        plugin.getProfileStorage().flush(player.getUniqueId());
+        plugin.getPlaceholderRegistry().getCache().invalidate(player.getUniqueId());
+
+        if (message == null) {
             return;
         }
 
-        TextComponent message = this.createFormattedText(player, format, "");
-
         this.broadcastMessage(message);
     }
 
     /**
-     * Listen for PlayerChat events and broadcast them to every server
+     * Listen for PlayerChat events and broadcast them to every server.
+     * Only the admission is done here, the rest is handled by the {@link ChatPipeline}
      */
     @Subscribe(order = PostOrder.NORMAL)
-    public void onChat(PlayerChatEvent e) {
-        Player player = e.getPlayer();
-        ProxyServer proxy = plugin.getProxy();
+    public EventTask onChat(PlayerChatEvent e) {
+        long received = System.nanoTime();
+
+        GChatEvent gChatEvent = new GChatEvent(e.getPlayer(), e);
 
-        GChatEvent gChatEvent = new GChatEvent(player, e);
-        proxy.getEventManager().fire(gChatEvent).join();
+        // take the message's place in the chat now, admission may finish out of order
+        ChatPipeline pipeline = plugin.getChatPipeline();
+        ChatPipeline.Ticket ticket = pipeline.reserve();
+
+        // don't block the event thread while our own event is being handled
+        CompletableFuture<Void> admission = plugin.getProxy().getEventManager().fire(gChatEvent)
+                .thenAccept(event -> this.admit(e, event, received, ticket))
+                .whenComplete((ignored, throwable) -> pipeline.release(ticket));
+
+        return EventTask.resumeWhenComplete(admission);
+    }
+
+    /**
+     * Decide the result of the PlayerChatEvent, and hand accepted messages to the pipeline
+     */
+    private void admit(PlayerChatEvent e, GChatEvent gChatEvent, long received, ChatPipeline.Ticket ticket) {
+        long started = System.nanoTime();
+        Player player = e.getPlayer();
 
         if (!gChatEvent.getResult().isAllowed()) {
             return;
@@ -179,15 +205,10 @@ public class GChatListener {
             return;
         }
 
-        GChatPlayer gplayer = GChatPlayer.get(player);
-
-        Map<String, String> parameters = new HashMap<>();
-        parameters.put("message", e.getMessage());
-
-        TextComponent outgoing_message = gplayer.format("chat", parameters);
+        ChatFormat format = plugin.getFormat(player, "chat").orElse(null);
 
         // couldn't find a format for the player
-        if (outgoing_message == null) {
+        if (format == null) {
             if (!config.isPassthrough()) {
                 e.setResult(PlayerChatEvent.ChatResult.denied());
             }
@@ -198,34 +219,9 @@ public class GChatListener {
         // we have a format, so cancel the event.
         e.setResult(PlayerChatEvent.ChatResult.denied());
 
-        parameters.put("message", "<aqua>" + e.getMessage());
-        TextComponent self_message = gplayer.format("chat", parameters);
-
-        ChatFormat format = plugin.getFormat(player, "chat").orElse(null);
-
-        GChatMessageFormedEvent formedEvent = new GChatMessageFormedEvent(player, format, e.getMessage(), outgoing_message);
-        proxy.getEventManager().fireAndForget(formedEvent);
-
-        if (config.isLogChatGlobal()) {
-            plugin.getLogger().info(PlainTextComponentSerializer.plainText().serialize(outgoing_message));
-        }
-
-        // send the message to online players
-        for (Player p : proxy.getAllPlayers()) {
-            boolean cancelled = plugin.getConfig().isRequireReceivePermission() && !player.hasPermission("gchat.receive");
-            GChatMessageSendEvent sendEvent = new GChatMessageSendEvent(player, p, format, e.getMessage(), cancelled);
-            proxy.getEventManager().fire(sendEvent).join();
-
-            if (!sendEvent.getResult().isAllowed()) {
-                continue;
-            }
-
-            if (player.getUniqueId().equals(p.getUniqueId())) {
-                p.sendMessage(player, self_message);
-            } else {
-                p.sendMessage(player, outgoing_message);
-            }
-        }
+        ChatPipeline pipeline = plugin.getChatPipeline();
+        pipeline.record(ChatPipeline.Stage.ADMISSION, started - received, System.nanoTime() - started);
+        pipeline.submit(ticket, player, format, e.getMessage());
     }
 
     /**
@@ -235,9 +231,7 @@ public class GChatListener {
 
         ProxyServer proxy = plugin.getProxy();
 
-        for (Player p : proxy.getAllPlayers()) {
-            p.sendMessage(message);
-        }
+        PreparedMessage.of(message).sendTo(proxy.getAllPlayers());
     }
 
     /**
@@ -252,38 +246,29 @@ public class GChatListener {
      */
     public TextComponent createFormattedText(Player player, RegisteredServer server, ChatFormat format, String message) {
 
-        // get the actual message format, and apply replacements.
-        String formatText = format.getFormatText();
-        formatText = plugin.replacePlaceholders(player, formatText);
-
-        // get any hover text, and apply replacements.
-        String hover = format.getHoverText();
-        hover = plugin.replacePlaceholders(player, hover);
-
-        // get the click event type, and the value if present.
-        ClickEvent.Action clickType = format.getClickType();
-        String clickValue = format.getClickValue();
-        if (clickType != null) {
-            clickValue = plugin.replacePlaceholders(player, clickValue);
-        }
-
-        // apply the players message to the chat format
-        formatText = formatText.replace("{message}", message);
+        Map<String, String> parameters = new HashMap<>();
 
         if (server != null) {
             ServerInfo info = server.getServerInfo();
 
             if (info != null) {
-                formatText = formatText.replace("{server}", info.getName());
+                parameters.put("server", info.getName());
+            }
+        }
 
-                if (clickValue != null) {
-                    clickValue = clickValue.replace("{server}", info.getName());
-                }
+        // the player's own text only goes into the format, never into the hover or click value
+        Map<String, String> format_parameters = new HashMap<>(parameters);
+        format_parameters.put("message", message);
 
-                if (hover != null) {
-                    hover = hover.replace("{server}", info.getName());
-                }
-            }
+        // render the pre-compiled format, hover & click templates
+        String formatText = plugin.renderTemplate(player, format.getFormatTemplate(), format_parameters);
+        String hover = plugin.renderTemplate(player, format.getHoverTemplate(), parameters);
+
+        // get the click event type, and the value if present.
+        ClickEvent.Action clickType = format.getClickType();
+        String clickValue = format.getClickValue();
+        if (clickType != null) {
+            clickValue = plugin.renderTemplate(player, format.getClickTemplate(), parameters);
         }
 
         // apply any hover events
@@ -4,6 +4,8 @@ import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ServerConnection;
 import me.lucko.gchat.api.ChatFormat;
+import me.lucko.gchat.placeholder.TimeFormatCache;
+import me.lucko.gchat.tab.GChatTabList;
 import net.kyori.adventure.audience.MessageType;
 import net.kyori.adventure.identity.Identity;
 import net.kyori.adventure.text.Component;
@@ -12,31 +14,23 @@ import net.kyori.adventure.text.event.ClickEvent;
 import net.kyori.adventure.text.event.HoverEvent;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
-import net.luckperms.api.LuckPerms;
-import net.luckperms.api.LuckPermsProvider;
-import net.luckperms.api.model.user.User;
-import net.luckperms.api.node.NodeType;
-import net.luckperms.api.node.types.MetaNode;
 import org.jetbrains.annotations.Nullable;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
 import java.util.*;
 
 public class GChatPlayer {
 
     public Player player;
-    public final LuckPerms luckperms;
-    public final User user;
-
-    protected String pronouns = null;
-    protected String timezone = null;
-    protected String nickname = null;
-    protected String nickname_color = null;
-    protected DateFormat date_format = null;
+
+    protected volatile String pronouns = null;
+    protected volatile String timezone = null;
+    protected volatile String nickname = null;
+    protected volatile String nickname_color = null;
+    protected volatile ZoneId zone = null;
     public static final Map<String, String> COLOR_MAP = new HashMap<>();
 
-    public static final HashMap<UUID, GChatPlayer> CACHE = new HashMap<>();
+    public static final SessionRegistry SESSIONS = new SessionRegistry();
     public static LegacyComponentSerializer legacyLinkingSerializer = null;
     public static MiniMessage miniMessage = null;
 
@@ -57,10 +51,18 @@ public class GChatPlayer {
     }
 
     public GChatPlayer(Player player) {
+        this(player, true);
+    }
+
+    /**
+     * @param   load   Read the profile values, or leave them empty
+     */
+    public GChatPlayer(Player player, boolean load) {
         this.player = player;
-        this.luckperms = LuckPermsProvider.get();
-        this.user = luckperms.getPlayerAdapter(Player.class).getUser(player);
-        this.init();
+
+        if (load) {
+            this.init();
+        }
     }
 
     private void init() {
@@ -71,6 +73,50 @@ public class GChatPlayer {
         this.fixNickname();
     }
 
+    /**
+     * Read the profile values again, after this player's LuckPerms data changed.
+     * Only the values that actually changed are replaced
+     *
+     * @return   True if anything changed
+     */
+    public boolean refresh() {
+
+        boolean changed = false;
+
+        String pronouns = this.getMetaValue("pronouns");
+        if (!Objects.equals(pronouns, this.pronouns)) {
+            this.pronouns = pronouns;
+            changed = true;
+        }
+
+        String timezone = this.getMetaValue("timezone");
+        if (!Objects.equals(timezone, this.timezone)) {
+            this.timezone = timezone;
+            this.updateTimeZone();
+            changed = true;
+        }
+
+        String nickname = this.getMetaValue("nickname");
+        if (nickname != null) {
+            nickname = nickname.replace("§", "");
+        }
+
+        if (!Objects.equals(nickname, this.nickname)) {
+            String old_nickname = this.nickname;
+            this.nickname = nickname;
+            this.updateNameIndex(old_nickname);
+            changed = true;
+        }
+
+        String nickname_color = this.getMetaValue("nickname_color");
+        if (!Objects.equals(nickname_color, this.nickname_color)) {
+            this.nickname_color = nickname_color;
+            changed = true;
+        }
+
+        return changed;
+    }
+
     /**
      * Get the coloured displayname
      *
@@ -120,6 +166,7 @@ public class GChatPlayer {
     public void setNicknameColor(String color_code) {
         this.nickname_color = color_code;
         this.setMetaNode("nickname_color", color_code);
+        this.invalidateTabDisplay();
     }
 
     public String getNickname() {
@@ -127,9 +174,22 @@ public class GChatPlayer {
     }
 
     public void setNickname(String nickname) {
+        String old_nickname = this.nickname;
         this.nickname = nickname;
         this.fixNickname();
         this.setMetaNode("nickname", this.nickname);
+        this.updateNameIndex(old_nickname);
+        this.invalidateTabDisplay();
+    }
+
+    /**
+     * Keep the name index up to date after the nickname changed
+     */
+    private void updateNameIndex(String old_nickname) {
+        // Only the registered session is indexed
+        if (SESSIONS.getIfPresent(this.player.getUniqueId()) == this) {
+            SESSIONS.getNames().updateNickname(this, old_nickname);
+        }
     }
 
     private void fixNickname() {
@@ -145,6 +205,16 @@ public class GChatPlayer {
     public void setPronouns(String pronouns) {
         this.pronouns = pronouns;
         this.setMetaNode("pronouns", pronouns);
+        this.invalidateTabDisplay();
+    }
+
+    /**
+     * Make sure this player's tab entry is formatted again on the next update
+     */
+    protected void invalidateTabDisplay() {
+        if (GChatTabList.instance != null) {
+            GChatTabList.instance.invalidateDisplay(this.player.getUniqueId());
+        }
     }
 
     public String getTimezone() {
@@ -158,62 +228,50 @@ public class GChatPlayer {
     }
 
     protected void updateTimeZone() {
-        if (this.timezone != null) {
-            try {
-                this.date_format.setTimeZone(TimeZone.getTimeZone(this.timezone));
-            } catch (Exception e) {
-                // Ignore
-            }
-        }
+        this.zone = TimeFormatCache.getZone(this.timezone);
     }
 
-    public DateFormat getDateFormat() {
+    /**
+     * Get the zone of this player's timezone, or the server's zone if they haven't set one
+     */
+    public ZoneId getZone() {
 
-        if (this.date_format == null) {
-            this.date_format = new SimpleDateFormat("HH:mm");
+        if (this.zone == null) {
             this.updateTimeZone();
         }
 
-        return this.date_format;
+        return this.zone;
     }
 
     public String getCurrentTime() {
-        Date now = new Date();
-        return this.getDateFormat().format(now);
+        return TimeFormatCache.getTime(this.getZone());
     }
 
     /**
-     * Get a metadata node
+     * Get a profile value from the configured profile storage
      * @param   name   The name of the value to get
      */
     public String getMetaValue(String name) {
-        return luckperms.getPlayerAdapter(Player.class).getMetaData(this.player).getMetaValue(name);
+        return GChatPlugin.instance.getProfileStorage().getValue(this.player, name);
     }
 
     /**
-     * Remove a meta node (always needed when a value should be set)
+     * Remove a profile value
      * @param   name   The name of the value to remove
      */
     protected void removeMetaNode(String name) {
-        // clear any existing meta nodes with the same key - we want to override
-        user.data().clear(NodeType.META.predicate(mn -> mn.getMetaKey().equals(name)));
+        this.setMetaNode(name, null);
     }
 
     /**
-     * Set a meta node value
+     * Set a profile value.
+     * The change is live right away, saving it to storage happens in the background
      *
-     * @param name   The name of the node to set
+     * @param name   The name of the value to set
      * @param value  The actual value
      */
     public void setMetaNode(String name, String value) {
-        this.removeMetaNode(name);
-
-        if (value != null) {
-            MetaNode value_node = MetaNode.builder(name, value).build();
-            user.data().add(value_node);
-        }
-
-        luckperms.getUserManager().saveUser(user);
+        GChatPlugin.instance.getProfileStorage().setValue(this.player, name, value);
     }
 
     /**
@@ -237,7 +295,7 @@ public class GChatPlayer {
                 System.out.println("[GChat] Refetching player " + this.player.getUsername() + " server.");
                 server = this.player.getCurrentServer().orElse(null);
             } else {
-                GChatPlayer.remove(this.player);
+                SESSIONS.logout(this.player);
             }
         }
 
@@ -328,14 +386,20 @@ public class GChatPlayer {
      * @since    3.1.0
      */
     public void broadcast(TextComponent message, boolean include_self) {
+
+        if (message == null) {
+            return;
+        }
+
+        PreparedMessage prepared = PreparedMessage.of(message);
+
         for (Player player : GChatPlugin.instance.getProxy().getAllPlayers()) {
 
             if (player == this.player && !include_self) {
                 continue;
             }
 
-            GChatPlayer gplayer = GChatPlayer.get(player);
-            gplayer.sendMessage(message);
+            prepared.sendTo(player);
         }
     }
 
@@ -350,7 +414,10 @@ public class GChatPlayer {
             return null;
         }
 
-        String text = GChatPlugin.instance.replacePlaceholders(player, format.getFormatText());
+        GChatPlugin plugin = GChatPlugin.instance;
+
+        // render the pre-compiled templates in a single pass each
+        String text = plugin.renderTemplate(player, format.getFormatTemplate(), parameters);
 
         if (text == null) {
             System.out.println("Failed to format text for '" + format_name + "'");
@@ -358,28 +425,13 @@ public class GChatPlayer {
         }
 
         // get any hover text, and apply replacements.
-        String hover = GChatPlugin.instance.replacePlaceholders(player, format.getHoverText());
+        String hover = plugin.renderTemplate(player, format.getHoverTemplate(), parameters);
 
         // get the click event type, and the value if present.
         ClickEvent.Action click_type = format.getClickType();
-        String click_value = format.getClickValue();
+        String click_value = null;
         if (click_type != null) {
-            click_value = GChatPlugin.instance.replacePlaceholders(player, click_value);
-        }
-
-        if (parameters != null) {
-            for (Map.Entry<String, String> entry : parameters.entrySet()) {
-                String key = "{" + entry.getKey() + "}";
-                String value = entry.getValue();
-
-                text = text.replace(key, value);
-                if (hover != null) {
-                    hover = hover.replace(key, value);
-                }
-                if (click_value != null) {
-                    click_value = click_value.replace(key, value);
-                }
-            }
+            click_value = plugin.renderTemplate(player, format.getClickTemplate(), parameters);
         }
 
         // apply any hover events
@@ -416,15 +468,15 @@ public class GChatPlayer {
      * @since    3.0.2
      */
     public static GChatPlayer get(Player player) {
+        return SESSIONS.get(player);
+    }
 
-        GChatPlayer result = GChatPlayer.get(player.getUniqueId());
-
-        if (result == null) {
-            result = new GChatPlayer(player);
-            CACHE.put(player.getUniqueId(), result);
-        }
-
-        return result;
+    /**
+     * Get a player with its profile loaded, waiting for it if needed.
+     * Use this before changing the profile, not from event or timer threads
+     */
+    public static GChatPlayer getLoaded(Player player) {
+        return SESSIONS.getLoaded(player);
     }
 
     /**
@@ -434,12 +486,7 @@ public class GChatPlayer {
      * @since    3.0.2
      */
     public static GChatPlayer get(UUID player_uuid) {
-
-        if (CACHE.containsKey(player_uuid)) {
-            return CACHE.get(player_uuid);
-        }
-
-        return null;
+        return SESSIONS.getIfPresent(player_uuid);
     }
 
     /**
@@ -464,34 +511,18 @@ public class GChatPlayer {
      * @since    3.1.0
      */
     public static GChatPlayer getByDisplayName(String display_name) {
-        display_name = display_name.toLowerCase().trim();
-
-        for (Player player : GChatPlugin.instance.getProxy().getAllPlayers()) {
-            GChatPlayer gplayer = GChatPlayer.get(player);
 
-            String nickname = gplayer.getNickname();
+        GChatPlayer result = SESSIONS.getByName(display_name);
 
-            if (nickname != null) {
-                if (display_name.equals(nickname)) {
-                    return gplayer;
-                }
-
-                nickname = nickname.toLowerCase().trim();
-
-                if (display_name.equals(nickname)) {
-                    return gplayer;
-                }
-            }
-
-            String username = player.getUsername();
+        if (result != null) {
+            return result;
+        }
 
-            if (username != null) {
-                username = username.toLowerCase().trim();
+        // Not loaded yet? Let the proxy look up the username
+        Player player = GChatPlugin.instance.getProxy().getPlayer(display_name.trim()).orElse(null);
 
-                if (display_name.equals(username)) {
-                    return gplayer;
-                }
-            }
+        if (player != null) {
+            return GChatPlayer.get(player);
         }
 
         return null;
@@ -568,6 +599,6 @@ public class GChatPlayer {
      * @since    3.0.2
      */
     public static void remove(Player player) {
-        CACHE.remove(player.getUniqueId());
+        SESSIONS.invalidate(player);
     }
 }
@@ -26,8 +26,6 @@
 package me.lucko.gchat;
 
 import com.google.common.collect.ImmutableSet;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.velocitypowered.api.command.CommandManager;
 import com.velocitypowered.api.event.Subscribe;
@@ -50,14 +48,30 @@ import me.lucko.gchat.api.GChatApi;
 import me.lucko.gchat.api.Placeholder;
 import me.lucko.gchat.commands.*;
 import me.lucko.gchat.config.GChatConfig;
+import me.lucko.gchat.hooks.LuckPermsEventHook;
 import me.lucko.gchat.hooks.LuckPermsHook;
 import me.lucko.gchat.hooks.NeutronN3FSHook;
 import me.lucko.gchat.hooks.PluginMessageHook;
 import me.lucko.gchat.hooks.TimerHook;
+import me.lucko.gchat.metrics.MetricsStore;
+import me.lucko.gchat.metrics.ServerMetrics;
+import me.lucko.gchat.placeholder.PlaceholderRegistry;
+import me.lucko.gchat.placeholder.PlaceholderTemplate;
 import me.lucko.gchat.placeholder.StandardPlaceholders;
+import me.lucko.gchat.placeholder.TimeFormatCache;
+import me.lucko.gchat.push.EventFeed;
+import me.lucko.gchat.push.PlayerListTracker;
+import me.lucko.gchat.push.PushDispatcher;
+import me.lucko.gchat.push.PushEvent;
+import me.lucko.gchat.push.PushSpool;
+import me.lucko.gchat.routing.ServerRouter;
+import me.lucko.gchat.storage.LocalProfileStorage;
+import me.lucko.gchat.storage.LuckPermsProfileStorage;
+import me.lucko.gchat.storage.ProfileStorage;
 import me.lucko.gchat.tab.GChatTabList;
 import net.kyori.adventure.serializer.configurate3.ConfigurateComponentSerializer;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import net.luckperms.api.LuckPermsProvider;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.ConfigurationOptions;
 import ninja.leaping.configurate.objectmapping.serialize.TypeSerializerCollection;
@@ -68,15 +82,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -101,15 +110,15 @@ public class GChatPlugin implements GChatApi {
     private final ProxyServer proxy;
     private final Logger logger;
     private final Path dataDirectory;
-    private final Set<Placeholder> placeholders = ConcurrentHashMap.newKeySet();
+    private final PlaceholderRegistry placeholders = new PlaceholderRegistry();
     private GChatTabList tab_list = null;
-    private final DateFormat date_format;
-    private final DateFormat time_format;
-    private final DateFormat tz_time_format;
-    private final Map<ServerInfo, Integer> load_map;
-    private final Map<ServerInfo, Float> mspt_map;
-    private final Map<ServerInfo, Float> tps_map;
-    private final Map<ServerInfo, Integer> counter_map;
+    private ChatPipeline chat_pipeline = null;
+    private ProfileStorage profile_storage = null;
+    private MetricsStore metrics = null;
+    private ServerRouter server_router = null;
+    private PushDispatcher push_dispatcher = null;
+    private PlayerListTracker player_list_tracker = null;
+    private EventFeed event_feed = null;
 
     public static final MinecraftChannelIdentifier GCHAT_CHANNEL = MinecraftChannelIdentifier.create("blackblock", "gchat");
     public static final MinecraftChannelIdentifier SERVER_MOVE_CHANNEL = MinecraftChannelIdentifier.create("blackblock", "servermove");
@@ -123,15 +132,6 @@ public class GChatPlugin implements GChatApi {
         this.logger = logger;
         this.dataDirectory = dataDirectory;
 
-        this.date_format = new SimpleDateFormat("yyyy-MM-dd");
-        this.time_format = new SimpleDateFormat("HH:mm");
-        this.tz_time_format = new SimpleDateFormat("HH:mm");
-
-        this.mspt_map = new HashMap<>();
-        this.tps_map = new HashMap<>();
-        this.load_map = new HashMap<>();
-        this.counter_map = new HashMap<>();
-
         GChatPlugin.instance = this;
     }
 
@@ -146,18 +146,35 @@ public class GChatPlugin implements GChatApi {
             throw new RuntimeException("Failed to load config", e);
         }
 
+        placeholders.getCache().setEnabled(config.isPlaceholderCache());
+
+        this.metrics = new MetricsStore(config.getMetricsWindow(), config.getMetricsSamples(), config.getMetricsStaleAfter());
+
         // init placeholder hooks
-        placeholders.add(new StandardPlaceholders());
+        placeholders.register(new StandardPlaceholders());
 
         // hook with luckperms
         if (proxy.getPluginManager().getPlugin("luckperms").isPresent()) {
-            placeholders.add(new LuckPermsHook());
+            placeholders.register(new LuckPermsHook());
+            new LuckPermsEventHook(this).register();
         }
 
         if (proxy.getPluginManager().getPlugin("neutron-n3fs").isPresent()) {
             proxy.getEventManager().register(this, new NeutronN3FSHook());
         }
 
+        // the profile storage is chosen on startup, changing it requires a restart
+        this.profile_storage = this.createProfileStorage();
+
+        // load player profiles in the background as soon as they log in
+        GChatPlayer.SESSIONS.start(config.getProfileLoaderThreads(), config.getProfileLoadTimeout());
+
+        // the chat pipeline is sized on startup, changing it requires a restart
+        this.chat_pipeline = new ChatPipeline(this, config.getPipelineThreads(), config.getPipelineQueueSize());
+
+        // pushed events are sent in the background, the queue and spool are set up on startup
+        this.push_dispatcher = new PushDispatcher(this, config.getPushQueueSize(), this.createPushSpool());
+
         // register chat listener
         proxy.getEventManager().register(this, new GChatListener(this));
 
@@ -180,6 +197,9 @@ public class GChatPlugin implements GChatApi {
         commandManager.register("me", new MeCommand("me"));
         commandManager.register("say", new MeCommand("say"));
 
+        this.server_router = new ServerRouter(this);
+        proxy.getEventManager().register(this, this.server_router);
+
         proxy.getEventManager().register(this, new PluginMessageHook(this));
         proxy.getChannelRegistrar().register(GCHAT_CHANNEL);
         proxy.getChannelRegistrar().register(SERVER_MOVE_CHANNEL);
@@ -187,8 +207,21 @@ public class GChatPlugin implements GChatApi {
         this.tab_list = new GChatTabList(this, proxy);
         proxy.getEventManager().register(this, this.tab_list);
 
+        this.player_list_tracker = new PlayerListTracker(this, this.push_dispatcher);
+
+        // the event feed listens on startup, changing it requires a restart
+        if (config.isEventFeed()) {
+            try {
+                this.event_feed = new EventFeed(this, config.getEventFeedHost(), config.getEventFeedPort(), config.getEventFeedToken(),
+                        config.getEventFeedMaxSubscribers(), config.getEventFeedBufferSize());
+            } catch (IOException e) {
+                logger.error("Failed to start the event feed", e);
+            }
+        }
+
         Timer timer = new Timer(true);
         timer.scheduleAtFixedRate(new TimerHook(), 1000, 1000);
+        timer.scheduleAtFixedRate(this.player_list_tracker, 1000, 1000);
 
         // init api singleton
         GChat.setApi(this);
@@ -198,21 +231,39 @@ public class GChatPlugin implements GChatApi {
     public void onDisable(ProxyShutdownEvent event) {
         // null the api singleton
         GChat.setApi(null);
+
+        if (this.chat_pipeline != null) {
+            this.chat_pipeline.shutdown();
+        }
+
+        GChatPlayer.SESSIONS.shutdown();
+
+        if (this.event_feed != null) {
+            this.event_feed.shutdown();
+        }
+
+        if (this.push_dispatcher != null) {
+            this.push_dispatcher.shutdown();
+        }
+
+        if (this.profile_storage != null) {
+            this.profile_storage.shutdown();
+        }
     }
 
     @Override
     public boolean registerPlaceholder(Placeholder placeholder) {
-        return placeholders.add(placeholder);
+        return placeholders.register(placeholder);
     }
 
     @Override
     public boolean unregisterPlaceholder(Placeholder placeholder) {
-        return placeholders.remove(placeholder);
+        return placeholders.unregister(placeholder);
     }
 
     @Override
     public ImmutableSet<Placeholder> getPlaceholders() {
-        return ImmutableSet.copyOf(placeholders);
+        return placeholders.getPlaceholders();
     }
 
     @Override
@@ -226,7 +277,7 @@ public class GChatPlugin implements GChatApi {
             return text;
         }
 
-        Date now = new Date();
+        ZoneId server_zone = ZoneId.systemDefault();
 
         Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
         while (matcher.find()) {
@@ -240,33 +291,29 @@ public class GChatPlugin implements GChatApi {
                     break;
 
                 case "server_date":
-                    replacement = this.date_format.format(now);
+                    replacement = TimeFormatCache.getDate(server_zone);
                     break;
 
                 case "server_time":
-                    replacement = this.time_format.format(now);
+                    replacement = TimeFormatCache.getTime(server_zone);
                     break;
 
                 case "local_time_nz":
-                    tz_time_format.setTimeZone(TimeZone.getTimeZone("NZ"));
-                    replacement = tz_time_format.format(now);
+                    replacement = TimeFormatCache.getTime(TimeFormatCache.getZone("NZ"));
                     break;
 
                 case "local_time_cet":
-                    tz_time_format.setTimeZone(TimeZone.getTimeZone("CET"));
-                    replacement = tz_time_format.format(now);
+                    replacement = TimeFormatCache.getTime(TimeFormatCache.getZone("CET"));
                     break;
 
                 case "local_time_est":
                 case "local_time_ny":
-                    tz_time_format.setTimeZone(TimeZone.getTimeZone("America/New_York"));
-                    replacement = tz_time_format.format(now);
+                    replacement = TimeFormatCache.getTime(TimeFormatCache.getZone("America/New_York"));
                     break;
 
                 case "local_time_pst":
                 case "local_time_la":
-                    tz_time_format.setTimeZone(TimeZone.getTimeZone("America/Los_Angeles"));
-                    replacement = tz_time_format.format(now);
+                    replacement = TimeFormatCache.getTime(TimeFormatCache.getZone("America/Los_Angeles"));
                     break;
             }
 
@@ -284,24 +331,28 @@ public class GChatPlugin implements GChatApi {
             return text;
         }
 
-        Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
-        while (matcher.find()) {
-            String definition = matcher.group(1);
-            String replacement = null;
+        return PlaceholderTemplate.compile(text).render(player, null, this::resolvePlaceholder);
+    }
 
-            for (Placeholder placeholder : placeholders) {
-                replacement = placeholder.getReplacement(player, definition);
-                if (replacement != null) {
-                    break;
-                }
-            }
+    /**
+     * Render a pre-compiled template for the given player
+     */
+    public String renderTemplate(Player player, PlaceholderTemplate template, Map<String, String> parameters) {
 
-            if (replacement != null) {
-                text = text.replace("{" + definition + "}", replacement);
-            }
+        if (template == null) {
+            return null;
         }
 
-        return text;
+        return template.render(player, parameters, this::resolvePlaceholder);
+    }
+
+    /**
+     * Resolve a single placeholder definition (without the outer brackets)
+     *
+     * @return the replacement, or null if no placeholder could satisfy it
+     */
+    public String resolvePlaceholder(Player player, String definition) {
+        return placeholders.resolve(player, definition);
     }
 
     @Override
@@ -329,6 +380,14 @@ public class GChatPlugin implements GChatApi {
     public boolean reloadConfig() {
         try {
             config = loadConfig();
+            placeholders.getCache().invalidateAll();
+            placeholders.getCache().setEnabled(config.isPlaceholderCache());
+            metrics.configure(config.getMetricsWindow(), config.getMetricsSamples(), config.getMetricsStaleAfter());
+
+            if (this.tab_list != null) {
+                this.tab_list.invalidateDisplays();
+            }
+
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -382,63 +441,101 @@ public class GChatPlugin implements GChatApi {
         return this.config;
     }
 
+    public PlaceholderRegistry getPlaceholderRegistry() {
+        return this.placeholders;
+    }
+
+    public ChatPipeline getChatPipeline() {
+        return this.chat_pipeline;
+    }
+
     /**
-     * Register a server's MSPT and TPS
+     * Get the dispatcher that sends pushed events
      */
-    public void registerTicks(ServerConnection server_connection, float mspt, float tps, int load) {
+    public PushDispatcher getPushDispatcher() {
+        return this.push_dispatcher;
+    }
 
-        RegisteredServer server = server_connection.getServer();
-        ServerInfo server_info = server.getServerInfo();
+    /**
+     * Get what keeps the endpoint's list of online players up to date
+     */
+    public PlayerListTracker getPlayerListTracker() {
+        return this.player_list_tracker;
+    }
 
-        Integer tick_counter = this.counter_map.getOrDefault(server_info, 0);
+    /**
+     * Get the local event feed, or null if it is disabled
+     */
+    public EventFeed getEventFeed() {
+        return this.event_feed;
+    }
 
-        if (tick_counter == 0) {
-            System.out.println("Server '" + server_info.getName() + "' TPS: " + ((int) tps) + " MSPT: " + ((int) mspt) + " Load: " + (int) load);
-        }
+    /**
+     * Get where player profiles are stored
+     */
+    public ProfileStorage getProfileStorage() {
+        return this.profile_storage;
+    }
+
+    private PushSpool createPushSpool() {
 
-        tick_counter++;
+        if (!config.isPushSpool()) {
+            return null;
+        }
 
-        // This will make the server TPS only print every +/- 40 seconds
-        // (Depends on how often the server reports its tps)
-        if (tick_counter > 20) {
-            tick_counter = 0;
+        try {
+            return new PushSpool(dataDirectory.resolve("push-spool"), config.getPushSpoolMaxSize() * 1024L * 1024L);
+        } catch (IOException e) {
+            logger.error("Failed to open the push event spool, events will be dropped while the endpoint is unavailable", e);
+            return null;
         }
+    }
 
-        this.counter_map.put(server_info, tick_counter + 1);
+    private ProfileStorage createProfileStorage() {
+        String type = config.getProfileStorage();
 
-        Float existing_mspt = this.mspt_map.get(server_info);
+        if (type.equals("luckperms")) {
+            if (proxy.getPluginManager().getPlugin("luckperms").isPresent()) {
+                return new LuckPermsProfileStorage(this, LuckPermsProvider.get(), config.getMetaFlushInterval());
+            }
 
-        if (existing_mspt != null) {
-            mspt = (existing_mspt + mspt) / 2;
+            logger.warn("LuckPerms is not installed, player profiles will be stored locally instead");
+        } else if (!type.equals("local")) {
+            logger.warn("Unknown profile storage '" + type + "', player profiles will be stored locally instead");
         }
 
-        Float existing_tps = this.tps_map.get(server_info);
-
-        if (existing_tps != null) {
-            tps = (existing_tps + tps) / 2;
+        try {
+            return new LocalProfileStorage(this, dataDirectory.resolve("profiles.dat"), config.getMetaFlushInterval());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load player profiles", e);
         }
+    }
 
-        Integer existing_load = this.load_map.get(server_info);
+    /**
+     * Register a server's MSPT and TPS
+     */
+    public void registerTicks(ServerConnection server_connection, float mspt, float tps, int load) {
 
-        if (existing_load != null) {
-            load = (existing_load + load) / 2;
-        }
+        ServerInfo server_info = server_connection.getServer().getServerInfo();
+
+        this.metrics.report(server_info.getName(), mspt, tps, load);
 
-        //System.out.println(" -- Normalized " + tps + " - " + mspt + " - " + load);
+        if (hasFeedSubscribers()) {
+            feedEvent(new PushEvent.MetricsEvent(server_info.getName(), mspt, tps, load));
+        }
 
-        this.mspt_map.put(server_info, mspt);
-        this.tps_map.put(server_info, tps);
-        this.load_map.put(server_info, load);
+        // the latest values are shown by "/gchat stats"
+        logger.debug("Server '{}' TPS: {} MSPT: {} Load: {}", server_info.getName(), (int) tps, (int) mspt, load);
     }
 
     /**
      * Get a server's load
      */
     public int getServerLoad(ServerConnection server_connection) {
-        RegisteredServer server = server_connection.getServer();
+        ServerMetrics result = this.getServerMetrics(server_connection);
 
-        if (server != null && this.load_map.containsKey(server.getServerInfo())) {
-            return this.load_map.get(server.getServerInfo());
+        if (result != null) {
+            return result.getLoad();
         }
 
         return -1;
@@ -449,10 +546,10 @@ public class GChatPlugin implements GChatApi {
      */
     public float getServerMSPT(ServerConnection server_connection) {
 
-        RegisteredServer server = server_connection.getServer();
+        ServerMetrics result = this.getServerMetrics(server_connection);
 
-        if (server != null && this.mspt_map.containsKey(server.getServerInfo())) {
-            return this.mspt_map.get(server.getServerInfo());
+        if (result != null) {
+            return result.getMSPT();
         }
 
         return -1f;
@@ -463,15 +560,44 @@ public class GChatPlugin implements GChatApi {
      */
     public float getServerTPS(ServerConnection server_connection) {
 
-        RegisteredServer server = server_connection.getServer();
+        ServerMetrics result = this.getServerMetrics(server_connection);
 
-        if (server != null && this.tps_map.containsKey(server.getServerInfo())) {
-            return this.tps_map.get(server.getServerInfo());
+        if (result != null) {
+            return result.getTPS();
         }
 
         return -1f;
     }
 
+    /**
+     * Get the latest metrics of a server,
+     * or null if it never reported any or stopped reporting a while ago
+     */
+    public ServerMetrics getServerMetrics(ServerConnection server_connection) {
+
+        RegisteredServer server = server_connection.getServer();
+
+        if (server == null) {
+            return null;
+        }
+
+        return this.metrics.getFresh(server.getServerInfo().getName());
+    }
+
+    /**
+     * Get the metrics of all the backend servers
+     */
+    public MetricsStore getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Get the router that picks servers for players
+     */
+    public ServerRouter getServerRouter() {
+        return this.server_router;
+    }
+
     /**
      * Should events be pushed to a remote serveR?
      */
@@ -497,68 +623,50 @@ public class GChatPlugin implements GChatApi {
     }
 
     /**
-     * Create an object
+     * Is there anyone to send events to, either the endpoint or the event feed?
      */
-    public static JsonObject createObject(String type) {
-        JsonObject result = new JsonObject();
-        result.addProperty("type", type);
-        return result;
+    public static boolean shouldEmitEvents() {
+        return shouldPushEvents() || hasFeedSubscribers();
     }
 
     /**
-     * Create an object with player data
+     * Is anyone connected to the local event feed?
      */
-    public static JsonObject createObject(String type, Player player) {
-        JsonObject result = createObject(type);
-
-        JsonObject player_obj = new JsonObject();
-
-        player_obj.addProperty("uuid", player.getUniqueId().toString());
-        player_obj.addProperty("username", player.getUsername());
-        player_obj.addProperty("ping", player.getPing());
-
-        ServerConnection connection = player.getCurrentServer().orElse(null);
+    public static boolean hasFeedSubscribers() {
 
-        if (connection != null) {
-            player_obj.addProperty("server", connection.getServer().getServerInfo().getName());
+        if (instance == null || instance.event_feed == null) {
+            return false;
         }
 
-        result.add("player", player_obj);
-
-        return result;
+        return instance.event_feed.hasSubscribers();
     }
 
     /**
-     * Push the given object to the endpoint
+     * Queue the given event to be pushed to the endpoint,
+     * and send it to the event feed
      */
-    public static void pushEvent(JsonObject data) {
+    public static void pushEvent(PushEvent event) {
 
-        if (data == null || instance == null || !shouldPushEvents()) {
+        if (event == null || instance == null) {
             return;
         }
 
-        try {
-            _pushEvent(data);
-        } catch (Exception e) {
-            // Ignore
+        if (instance.push_dispatcher != null && shouldPushEvents()) {
+            instance.push_dispatcher.push(event);
         }
-    }
 
-    private static void _pushEvent(JsonObject data) {
+        feedEvent(event);
+    }
 
-        URI uri = getPushEndpoint();
+    /**
+     * Send the given event to the event feed only
+     */
+    public static void feedEvent(PushEvent event) {
 
-        if (uri == null) {
+        if (event == null || instance == null || instance.event_feed == null) {
             return;
         }
 
-        String body = (new Gson()).toJson(data);
-
-        HttpRequest request = HttpRequest.newBuilder(uri)
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(body))
-                .build();
-
-        HttpClient.newHttpClient().sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        instance.event_feed.publish(event);
     }
 }
@@ -0,0 +1,136 @@
+package me.lucko.gchat;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds online players by their nickname or username.
+ *
+ * <p>Names are stored lowercased and trimmed, so a lookup is a single map
+ * access instead of a comparison against every online player. Nicknames don't
+ * have to be unique, so every nickname keeps all of its owners, and a lookup
+ * returns the one who took it first. The name each player is shown as is also
+ * kept in a {@link NameTrie} for completions.</p>
+ */
+public class NameIndex {
+
+    // the sets are replaced instead of changed, so they can be read without locking
+    private final Map<String, Set<UUID>> nicknames = new ConcurrentHashMap<>();
+    private final Map<String, UUID> usernames = new ConcurrentHashMap<>();
+    private final NameTrie display_names = new NameTrie();
+
+    /**
+     * Normalize a name for lookups
+     */
+    public static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT).trim();
+    }
+
+    /**
+     * Add the names of the given player
+     */
+    public void add(GChatPlayer gplayer) {
+        UUID uuid = gplayer.player.getUniqueId();
+
+        this.usernames.put(normalize(gplayer.player.getUsername()), uuid);
+
+        String nickname = gplayer.getNickname();
+
+        if (nickname != null && !nickname.isBlank()) {
+            this.addNickname(normalize(nickname), uuid);
+        }
+
+        this.display_names.put(uuid, gplayer.getDisplayName());
+    }
+
+    /**
+     * Remove the names of the given player
+     */
+    public void remove(GChatPlayer gplayer) {
+        UUID uuid = gplayer.player.getUniqueId();
+
+        this.usernames.remove(normalize(gplayer.player.getUsername()), uuid);
+
+        String nickname = gplayer.getNickname();
+
+        if (nickname != null) {
+            this.removeNickname(normalize(nickname), uuid);
+        }
+
+        this.display_names.remove(uuid);
+    }
+
+    /**
+     * The nickname of the given player changed
+     *
+     * @param   gplayer        The player, already holding the new nickname
+     * @param   old_nickname   The previous nickname, if any
+     */
+    public void updateNickname(GChatPlayer gplayer, String old_nickname) {
+        UUID uuid = gplayer.player.getUniqueId();
+
+        if (old_nickname != null) {
+            this.removeNickname(normalize(old_nickname), uuid);
+        }
+
+        String nickname = gplayer.getNickname();
+
+        if (nickname != null && !nickname.isBlank()) {
+            this.addNickname(normalize(nickname), uuid);
+        }
+
+        this.display_names.put(uuid, gplayer.getDisplayName());
+    }
+
+    private void addNickname(String nickname, UUID uuid) {
+        this.nicknames.compute(nickname, (key, owners) -> {
+            Set<UUID> result = owners == null ? new LinkedHashSet<>() : new LinkedHashSet<>(owners);
+            result.add(uuid);
+            return result;
+        });
+    }
+
+    private void removeNickname(String nickname, UUID uuid) {
+        this.nicknames.computeIfPresent(nickname, (key, owners) -> {
+            if (!owners.contains(uuid)) {
+                return owners;
+            }
+
+            Set<UUID> result = new LinkedHashSet<>(owners);
+            result.remove(uuid);
+            return result.isEmpty() ? null : result;
+        });
+    }
+
+    /**
+     * Get the display names of the players containing the given text,
+     * or all of them if it is blank
+     */
+    public List<String> complete(String query) {
+        return this.display_names.search(query);
+    }
+
+    /**
+     * Find a player by nickname or username.
+     * Nicknames take precedence over usernames. When several players
+     * share a nickname, the first one who took it is found
+     *
+     * @return   The uuid of the player, or null if nobody online has that name
+     */
+    public UUID find(String name) {
+        String normalized = normalize(name);
+
+        Set<UUID> owners = this.nicknames.get(normalized);
+
+        if (owners != null) {
+            return owners.iterator().next();
+        }
+
+        return this.usernames.get(normalized);
+    }
+}
@@ -0,0 +1,194 @@
+package me.lucko.gchat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Answers name completion queries for online players.
+ *
+ * <p>Names are kept in a prefix trie, so the names starting with the query
+ * are found by walking only the matching branch. Names that merely contain
+ * the query are found through an index of all their 1 to 3 character
+ * substrings. Both are updated whenever a name changes, instead of
+ * rebuilding a list on every keystroke.</p>
+ */
+public class NameTrie {
+
+    private static final int MAX_GRAM = 3;
+
+    private final Map<UUID, String> names = new HashMap<>();
+    private final Map<UUID, String> lowered = new HashMap<>();
+    private final Node root = new Node();
+    private final Map<String, Set<UUID>> grams = new HashMap<>();
+
+    /**
+     * Set the name of the given player, replacing any previous one
+     */
+    public synchronized void put(UUID uuid, String name) {
+
+        if (name.equals(this.names.get(uuid))) {
+            return;
+        }
+
+        this.remove(uuid);
+
+        String lower = NameIndex.normalize(name);
+
+        this.names.put(uuid, name);
+        this.lowered.put(uuid, lower);
+
+        Node node = this.root;
+        for (int i = 0; i < lower.length(); i++) {
+            node = node.children.computeIfAbsent(lower.charAt(i), c -> new Node());
+        }
+        node.uuids.add(uuid);
+
+        for (String gram : grams(lower)) {
+            this.grams.computeIfAbsent(gram, g -> new HashSet<>()).add(uuid);
+        }
+    }
+
+    /**
+     * Remove the name of the given player
+     */
+    public synchronized void remove(UUID uuid) {
+
+        this.names.remove(uuid);
+        String lower = this.lowered.remove(uuid);
+
+        if (lower == null) {
+            return;
+        }
+
+        removeFromTrie(this.root, lower, 0, uuid);
+
+        for (String gram : grams(lower)) {
+            Set<UUID> posting = this.grams.get(gram);
+
+            if (posting != null) {
+                posting.remove(uuid);
+
+                if (posting.isEmpty()) {
+                    this.grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the names containing the given query, ignoring case.
+     * Names starting with the query come first, in alphabetical order
+     */
+    public synchronized List<String> search(String query) {
+
+        String lower = NameIndex.normalize(query);
+        List<String> result = new ArrayList<>();
+
+        // Names starting with the query
+        Node node = this.root;
+        for (int i = 0; i < lower.length() && node != null; i++) {
+            node = node.children.get(lower.charAt(i));
+        }
+
+        Set<UUID> found = new HashSet<>();
+
+        if (node != null) {
+            this.collect(node, result, found);
+        }
+
+        if (lower.isEmpty()) {
+            return result;
+        }
+
+        // Names containing the query somewhere else
+        for (UUID uuid : this.candidates(lower)) {
+            if (!found.contains(uuid) && this.lowered.get(uuid).contains(lower)) {
+                result.add(this.names.get(uuid));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the players whose name may contain the given query:
+     * those that share its least common substring
+     */
+    private Set<UUID> candidates(String lower) {
+
+        if (lower.length() <= MAX_GRAM) {
+            return this.grams.getOrDefault(lower, Set.of());
+        }
+
+        Set<UUID> result = null;
+
+        for (int i = 0; i + MAX_GRAM <= lower.length(); i++) {
+            Set<UUID> posting = this.grams.get(lower.substring(i, i + MAX_GRAM));
+
+            if (posting == null) {
+                return Set.of();
+            }
+
+            if (result == null || posting.size() < result.size()) {
+                result = posting;
+            }
+        }
+
+        return result;
+    }
+
+    private void collect(Node node, List<String> result, Set<UUID> found) {
+
+        for (UUID uuid : node.uuids) {
+            result.add(this.names.get(uuid));
+            found.add(uuid);
+        }
+
+        for (Node child : node.children.values()) {
+            this.collect(child, result, found);
+        }
+    }
+
+    /**
+     * Remove the uuid from the node of the given name, and prune empty branches
+     *
+     * @return   True if the given node is now empty
+     */
+    private static boolean removeFromTrie(Node node, String lower, int depth, UUID uuid) {
+
+        if (depth == lower.length()) {
+            node.uuids.remove(uuid);
+        } else {
+            Node child = node.children.get(lower.charAt(depth));
+
+            if (child != null && removeFromTrie(child, lower, depth + 1, uuid)) {
+                node.children.remove(lower.charAt(depth));
+            }
+        }
+
+        return node.uuids.isEmpty() && node.children.isEmpty();
+    }
+
+    private static Set<String> grams(String lower) {
+        Set<String> result = new HashSet<>();
+
+        for (int length = 1; length <= MAX_GRAM; length++) {
+            for (int i = 0; i + length <= lower.length(); i++) {
+                result.add(lower.substring(i, i + length));
+            }
+        }
+
+        return result;
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new TreeMap<>();
+        private final Set<UUID> uuids = new HashSet<>(1);
+    }
+}
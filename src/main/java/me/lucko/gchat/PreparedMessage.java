@@ -0,0 +1,57 @@
+package me.lucko.gchat;
+
+import com.velocitypowered.api.proxy.Player;
+import net.kyori.adventure.identity.Identity;
+import net.kyori.adventure.text.Component;
+
+/**
+ * A message that is built once and then sent to many players.
+ *
+ * <p>The component tree is compacted a single time, so every recipient's
+ * connection serializes the smallest possible tree, and the exact same
+ * instance is handed to all of them.</p>
+ */
+public final class PreparedMessage {
+
+    private final Identity source;
+    private final Component component;
+
+    private PreparedMessage(Identity source, Component component) {
+        this.source = source;
+        this.component = component;
+    }
+
+    /**
+     * Prepare a system message
+     */
+    public static PreparedMessage of(Component component) {
+        return new PreparedMessage(Identity.nil(), component.compact());
+    }
+
+    /**
+     * Prepare a message sent by the given player
+     */
+    public static PreparedMessage of(Player sender, Component component) {
+        return new PreparedMessage(sender.identity(), component.compact());
+    }
+
+    public Component getComponent() {
+        return this.component;
+    }
+
+    /**
+     * Send this message to a single player
+     */
+    public void sendTo(Player player) {
+        player.sendMessage(this.source, this.component);
+    }
+
+    /**
+     * Send this message to all the given players
+     */
+    public void sendTo(Iterable<Player> players) {
+        for (Player player : players) {
+            player.sendMessage(this.source, this.component);
+        }
+    }
+}
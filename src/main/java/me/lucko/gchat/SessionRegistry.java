@@ -0,0 +1,367 @@
+package me.lucko.gchat;
+
+import com.velocitypowered.api.proxy.Player;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the GChatPlayer instances of everyone who is online.
+ *
+ * <p>Sessions are loaded in the background when a player logs in, so the
+ * first chat message or tab list update doesn't have to wait for LuckPerms.
+ * If a session is needed while it is still loading, {@link #get(Player)}
+ * returns a temporary one without profile values instead of waiting, so
+ * event and timer threads never block. Only {@link #getLoaded(Player)}, meant
+ * for commands that change the profile, waits for it for a limited time.
+ * Sessions are removed when the player logs out. All operations are safe to
+ * call from event, command and timer threads at the same time.</p>
+ */
+public class SessionRegistry {
+
+    private final Map<UUID, GChatPlayer> sessions = new ConcurrentHashMap<>();
+    private final Map<UUID, CompletableFuture<GChatPlayer>> loading = new ConcurrentHashMap<>();
+    private final NameIndex names = new NameIndex();
+
+    private ExecutorService loader = null;
+    private long load_timeout_millis = 0;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+    private final LongAdder logouts = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder preloaded = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder awaited = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger peak = new AtomicInteger();
+
+    /**
+     * Start loading sessions in the background
+     *
+     * @param threads          the amount of loader threads
+     * @param timeout_millis   how long to wait for a session that is still loading
+     */
+    public synchronized void start(int threads, long timeout_millis) {
+
+        this.load_timeout_millis = timeout_millis;
+
+        if (this.loader != null) {
+            return;
+        }
+
+        AtomicInteger thread_counter = new AtomicInteger();
+
+        this.loader = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "gChat Session Loader #" + thread_counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stop the background loader
+     */
+    public synchronized void shutdown() {
+        if (this.loader != null) {
+            this.loader.shutdownNow();
+            this.loader = null;
+        }
+    }
+
+    /**
+     * Get the session of the given player, creating it if it doesn't exist yet.
+     * If it is still being loaded in the background, a temporary session
+     * without any profile values is returned instead of waiting.
+     * Players that are no longer connected get a temporary session that isn't kept
+     */
+    public GChatPlayer get(Player player) {
+
+        GChatPlayer result = this.sessions.get(player.getUniqueId());
+
+        if (result != null) {
+            this.hits.increment();
+            return result;
+        }
+
+        if (this.loading.containsKey(player.getUniqueId())) {
+            this.fallbacks.increment();
+            return new GChatPlayer(player, false);
+        }
+
+        return this.createMissing(player);
+    }
+
+    /**
+     * Get the session of the given player with its profile loaded.
+     * If it is still being loaded in the background, wait for that first.
+     * This may block, so only use it where the profile is about to be changed
+     */
+    public GChatPlayer getLoaded(Player player) {
+
+        GChatPlayer result = this.sessions.get(player.getUniqueId());
+
+        if (result != null) {
+            this.hits.increment();
+            return result;
+        }
+
+        CompletableFuture<GChatPlayer> future = this.loading.get(player.getUniqueId());
+
+        if (future != null) {
+            result = this.await(future);
+
+            if (result != null) {
+                return result;
+            }
+        }
+
+        return this.createMissing(player);
+    }
+
+    private GChatPlayer createMissing(Player player) {
+
+        this.misses.increment();
+
+        // don't bring back the session of a player that left, it would outlive them
+        if (!player.isActive()) {
+            return new GChatPlayer(player);
+        }
+
+        return this.create(player);
+    }
+
+    /**
+     * Start loading the session of the given player in the background
+     *
+     * @return   A future that completes with the loaded session
+     */
+    public CompletableFuture<GChatPlayer> preload(Player player) {
+
+        UUID uuid = player.getUniqueId();
+        GChatPlayer existing = this.sessions.get(uuid);
+
+        if (existing != null) {
+            if (existing.player == player) {
+                return CompletableFuture.completedFuture(existing);
+            }
+
+            // left over from an earlier connection, it still holds the old Player
+            if (this.sessions.remove(uuid, existing)) {
+                this.names.remove(existing);
+                this.invalidated.increment();
+            }
+        }
+
+        CompletableFuture<GChatPlayer> future = new CompletableFuture<>();
+        CompletableFuture<GChatPlayer> previous = this.loading.putIfAbsent(uuid, future);
+
+        if (previous != null) {
+            return previous;
+        }
+
+        Runnable task = () -> {
+            try {
+                GChatPlayer result = this.create(player);
+
+                // the player logged out while we were loading
+                if (this.loading.get(uuid) != future && this.sessions.remove(uuid, result)) {
+                    this.names.remove(result);
+                }
+
+                this.preloaded.increment();
+                future.complete(result);
+            } catch (Throwable t) {
+                this.failures.increment();
+                GChatPlugin.instance.getLogger().error("Failed to load the profile of " + player.getUsername(), t);
+                future.completeExceptionally(t);
+            } finally {
+                this.loading.remove(uuid, future);
+            }
+        };
+
+        ExecutorService loader = this.loader;
+
+        try {
+            if (loader == null) {
+                task.run();
+            } else {
+                loader.execute(task);
+            }
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+
+        return future;
+    }
+
+    private GChatPlayer create(Player player) {
+        UUID uuid = player.getUniqueId();
+        GChatPlayer existing = this.sessions.get(uuid);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        // read the profile outside of the map, it may have to ask LuckPerms
+        GChatPlayer created = new GChatPlayer(player);
+        existing = this.sessions.putIfAbsent(uuid, created);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        this.created.increment();
+        this.names.add(created);
+
+        // the player logged out in the meantime
+        if (this.sessions.get(uuid) != created) {
+            this.names.remove(created);
+        }
+
+        this.peak.accumulateAndGet(this.sessions.size(), Math::max);
+
+        return created;
+    }
+
+    /**
+     * Wait for a session that is being loaded,
+     * or return null if it failed or took too long
+     */
+    private GChatPlayer await(CompletableFuture<GChatPlayer> future) {
+
+        this.awaited.increment();
+
+        try {
+            return future.get(this.load_timeout_millis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            this.timeouts.increment();
+        } catch (ExecutionException e) {
+            // already logged by the loader, load it again
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the session of the given player, or null if there is none
+     */
+    public GChatPlayer getIfPresent(UUID player_uuid) {
+        return this.sessions.get(player_uuid);
+    }
+
+    /**
+     * A player has logged in to the network
+     */
+    public CompletableFuture<GChatPlayer> login(Player player) {
+        return this.preload(player);
+    }
+
+    /**
+     * A player has logged out of the network
+     *
+     * @return   The removed session, or null if there was none
+     */
+    public GChatPlayer logout(Player player) {
+
+        this.loading.remove(player.getUniqueId());
+
+        GChatPlayer result = this.sessions.remove(player.getUniqueId());
+
+        if (result != null) {
+            this.names.remove(result);
+            this.logouts.increment();
+        }
+
+        return result;
+    }
+
+    /**
+     * Drop the session of the given player, so it is created again the next time it is needed
+     */
+    public void invalidate(Player player) {
+        GChatPlayer result = this.sessions.remove(player.getUniqueId());
+
+        if (result != null) {
+            this.names.remove(result);
+            this.invalidated.increment();
+        }
+    }
+
+    /**
+     * Find the session of an online player by nickname or username
+     *
+     * @return   The session, or null if nobody with that name has one
+     */
+    public GChatPlayer getByName(String name) {
+        UUID uuid = this.names.find(name);
+
+        if (uuid == null) {
+            return null;
+        }
+
+        return this.sessions.get(uuid);
+    }
+
+    /**
+     * Get the index of the names of everyone with a session
+     */
+    public NameIndex getNames() {
+        return this.names;
+    }
+
+    /**
+     * Get all the current sessions
+     */
+    public Collection<GChatPlayer> getSessions() {
+        return Collections.unmodifiableCollection(this.sessions.values());
+    }
+
+    /**
+     * Get the amount of current sessions
+     */
+    public int size() {
+        return this.sessions.size();
+    }
+
+    /**
+     * Get human readable statistics
+     */
+    public List<String> getStats() {
+        List<String> result = new ArrayList<>();
+
+        long hits = this.hits.sum();
+        long lookups = hits + this.misses.sum();
+
+        result.add("Sessions: " + this.sessions.size() + " live (peak " + this.peak.get() + "), "
+                + this.created.sum() + " created, "
+                + this.invalidated.sum() + " invalidated, "
+                + this.logouts.sum() + " logged out");
+
+        result.add(String.format(" - lookups: %d, %.1f%% hit rate", lookups, lookups == 0 ? 100d : hits * 100d / lookups));
+        result.add(" - preloaded: " + this.preloaded.sum() + ", " + this.loading.size() + " loading, "
+                + this.fallbacks.sum() + " used before loaded, "
+                + this.awaited.sum() + " waited for, " + this.timeouts.sum() + " timed out, "
+                + this.failures.sum() + " failed to load");
+
+        return result;
+    }
+}
@@ -26,6 +26,7 @@
 package me.lucko.gchat.api;
 
 import com.velocitypowered.api.proxy.Player;
+import me.lucko.gchat.placeholder.PlaceholderTemplate;
 import net.kyori.adventure.text.event.ClickEvent;
 import ninja.leaping.configurate.ConfigurationNode;
 
@@ -45,6 +46,9 @@ public class ChatFormat {
     private final String clickValue;
     private final String type;
     private final String permission;
+    private final PlaceholderTemplate formatTemplate;
+    private final PlaceholderTemplate hoverTemplate;
+    private final PlaceholderTemplate clickTemplate;
 
     public ChatFormat(String id, ConfigurationNode c) {
         this.id = id;
@@ -84,6 +88,10 @@ public class ChatFormat {
         this.hoverText = currentHoverText;
         this.clickType = currentClickType;
         this.clickValue = currentClickValue;
+
+        this.formatTemplate = PlaceholderTemplate.compile(this.formatText);
+        this.hoverTemplate = PlaceholderTemplate.compile(this.hoverText);
+        this.clickTemplate = PlaceholderTemplate.compile(this.clickValue);
     }
 
     public ChatFormat(String id, int priority, boolean checkPermission, String formatText, String hoverText, ClickEvent.Action clickType, String clickValue, String permission) {
@@ -96,6 +104,10 @@ public class ChatFormat {
         this.clickValue = clickValue;
         this.permission = permission;
         this.type = "chat";
+
+        this.formatTemplate = PlaceholderTemplate.compile(this.formatText);
+        this.hoverTemplate = PlaceholderTemplate.compile(this.hoverText);
+        this.clickTemplate = PlaceholderTemplate.compile(this.clickValue);
     }
 
     public boolean canUse(Player player) {
@@ -151,6 +163,27 @@ public class ChatFormat {
         return this.clickValue;
     }
 
+    /**
+     * Gets the pre-parsed format text
+     */
+    public PlaceholderTemplate getFormatTemplate() {
+        return this.formatTemplate;
+    }
+
+    /**
+     * Gets the pre-parsed hover text, or null if there is none
+     */
+    public PlaceholderTemplate getHoverTemplate() {
+        return this.hoverTemplate;
+    }
+
+    /**
+     * Gets the pre-parsed click value, or null if there is none
+     */
+    public PlaceholderTemplate getClickTemplate() {
+        return this.clickTemplate;
+    }
+
     public String toString() {
         return "ChatFormat(id=" + this.getId() + ", priority=" + this.getPriority() + ", checkPermission=" + this.isCheckPermission() + ", formatText=" + this.getFormatText() + ", hoverText=" + this.getHoverText() + ", clickType=" + this.getClickType() + ", clickValue=" + this.getClickValue() + ")";
     }
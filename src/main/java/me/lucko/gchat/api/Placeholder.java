@@ -27,6 +27,9 @@ package me.lucko.gchat.api;
 
 import com.velocitypowered.api.proxy.Player;
 
+import java.util.Collections;
+import java.util.Set;
+
 /**
  * Represents a placeholder replacement.
  */
@@ -41,4 +44,37 @@ public interface Placeholder {
      */
     String getReplacement(Player player, String definition);
 
+    /**
+     * Gets the exact placeholder names this {@link Placeholder} can satisfy.
+     *
+     * <p>Names are matched case-insensitively. Placeholders which declare neither names nor
+     * prefixes are asked for every definition, after all indexed placeholders.</p>
+     *
+     * @return the names this placeholder owns
+     */
+    default Set<String> getNames() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Gets the definition prefixes this {@link Placeholder} can satisfy, e.g. "lp_".
+     *
+     * <p>Prefixes are matched case-sensitively, the longest matching prefix is tried first.</p>
+     *
+     * @return the prefixes this placeholder owns
+     */
+    default Set<String> getPrefixes() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Gets how the replacement for the given definition may be cached.
+     *
+     * @param definition the placeholder definition, without the outer "{ }" brackets.
+     * @return the cache policy, or null if the replacement must be computed every time
+     */
+    default PlaceholderCachePolicy getCachePolicy(String definition) {
+        return null;
+    }
+
 }
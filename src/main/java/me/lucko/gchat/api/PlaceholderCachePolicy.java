@@ -0,0 +1,84 @@
+/*
+ * This file is part of gChat, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.gchat.api;
+
+import java.time.Duration;
+
+/**
+ * Describes how long the replacement of a {@link Placeholder} may be reused,
+ * and who it can be reused for.
+ */
+public final class PlaceholderCachePolicy {
+
+    public enum Scope {
+        /**
+         * The replacement is the same for every player
+         */
+        GLOBAL,
+
+        /**
+         * The replacement is the same for every player on the same server
+         */
+        SERVER,
+
+        /**
+         * The replacement is specific to a single player
+         */
+        PLAYER
+    }
+
+    private final Scope scope;
+    private final long ttlNanos;
+
+    private PlaceholderCachePolicy(Scope scope, Duration ttl) {
+        this.scope = scope;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public static PlaceholderCachePolicy global(Duration ttl) {
+        return new PlaceholderCachePolicy(Scope.GLOBAL, ttl);
+    }
+
+    public static PlaceholderCachePolicy perServer(Duration ttl) {
+        return new PlaceholderCachePolicy(Scope.SERVER, ttl);
+    }
+
+    public static PlaceholderCachePolicy perPlayer(Duration ttl) {
+        return new PlaceholderCachePolicy(Scope.PLAYER, ttl);
+    }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    public long getTtlNanos() {
+        return this.ttlNanos;
+    }
+
+    public String toString() {
+        return "PlaceholderCachePolicy(scope=" + this.getScope() + ", ttl=" + Duration.ofNanos(this.getTtlNanos()) + ")";
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of gChat, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.gchat.api.events;
+
+import com.google.common.base.Objects;
+import com.velocitypowered.api.event.ResultedEvent;
+import com.velocitypowered.api.event.player.PlayerChatEvent;
+import com.velocitypowered.api.proxy.Player;
+import me.lucko.gchat.api.ChatFormat;
+import net.kyori.adventure.text.Component;
+
+import java.util.Set;
+
+/**
+ * Called once per chat message, before it is sent to its recipients.
+ *
+ * <p>The recipient set is mutable: listeners can remove players who should not
+ * receive the message (or add players who should). Denying the result cancels
+ * the broadcast entirely.</p>
+ */
+public class GChatBroadcastEvent implements ResultedEvent<PlayerChatEvent.ChatResult> {
+
+    private final Player sender;
+    private final ChatFormat format;
+    private final String rawMessage;
+    private final Component message;
+    private final Set<Player> recipients;
+
+    private PlayerChatEvent.ChatResult result;
+
+    public GChatBroadcastEvent(Player sender, ChatFormat format, String rawMessage, Component message, Set<Player> recipients) {
+        this.sender = sender;
+        this.format = format;
+        this.rawMessage = rawMessage;
+        this.message = message;
+        this.recipients = recipients;
+        this.result = PlayerChatEvent.ChatResult.allowed();
+    }
+
+    public Player getSender() {
+        return this.sender;
+    }
+
+    public ChatFormat getFormat() {
+        return this.format;
+    }
+
+    public String getRawMessage() {
+        return this.rawMessage;
+    }
+
+    public Component getMessage() {
+        return this.message;
+    }
+
+    /**
+     * Gets the mutable set of players this message will be sent to
+     *
+     * @return the recipients
+     */
+    public Set<Player> getRecipients() {
+        return this.recipients;
+    }
+
+    public PlayerChatEvent.ChatResult getResult() {
+        return this.result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        GChatBroadcastEvent that = (GChatBroadcastEvent) o;
+        return Objects.equal(sender, that.sender) && Objects.equal(format, that.format) && Objects.equal(rawMessage, that.rawMessage) && Objects.equal(message, that.message) && Objects.equal(recipients, that.recipients) && Objects.equal(result, that.result);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(sender, format, rawMessage, message, recipients, result);
+    }
+
+    public String toString() {
+        return "GChatBroadcastEvent(sender=" + this.getSender() + ", format=" + this.getFormat() + ", rawMessage=" + this.getRawMessage() + ", message=" + this.getMessage() + ", recipients=" + this.getRecipients().size() + ", result=" + this.getResult() + ")";
+    }
+
+    public void setResult(PlayerChatEvent.ChatResult result) {
+        this.result = result;
+    }
+}
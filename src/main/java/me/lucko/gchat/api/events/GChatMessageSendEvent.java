@@ -33,6 +33,9 @@ import me.lucko.gchat.api.ChatFormat;
 
 /**
  * Called when an individual message is about to be sent to a recipient.
+ *
+ * <p>This event is only fired when "per-recipient-events" is enabled in the config.
+ * Prefer listening to {@link GChatBroadcastEvent}, which is fired once per message.</p>
  */
 public class GChatMessageSendEvent implements ResultedEvent<PlayerChatEvent.ChatResult> {
 
@@ -1,12 +1,12 @@
 package me.lucko.gchat.commands;
 
 import com.google.common.collect.ImmutableList;
-import com.google.gson.JsonObject;
 import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.proxy.Player;
 import me.lucko.gchat.GChatPlayer;
 import me.lucko.gchat.GChatPlugin;
+import me.lucko.gchat.push.PushEvent;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.NBTComponent;
 import net.kyori.adventure.text.format.NamedTextColor;
@@ -54,7 +54,7 @@ public class NicknameCommand implements SimpleCommand {
         String nickname = original_nickname;
         String color_name = null;
 
-        GChatPlayer gChatPlayer = GChatPlayer.get(player);
+        GChatPlayer gChatPlayer = GChatPlayer.getLoaded(player);
         gChatPlayer.setNickname(nickname);
 
         if (args.length == 2) {
@@ -70,11 +70,8 @@ public class NicknameCommand implements SimpleCommand {
             }
         }
 
-        if (GChatPlugin.shouldPushEvents()) {
-            JsonObject object = GChatPlugin.createObject("nickname", player);
-            object.addProperty("nickname", nickname);
-            object.addProperty("color", color_name);
-            GChatPlugin.pushEvent(object);
+        if (GChatPlugin.shouldEmitEvents()) {
+            GChatPlugin.pushEvent(new PushEvent.NicknameEvent(player, nickname, color_name));
         }
 
         LegacyComponentSerializer legacy = LegacyComponentSerializer.legacyAmpersand();
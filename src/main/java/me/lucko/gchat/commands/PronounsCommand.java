@@ -1,11 +1,11 @@
 package me.lucko.gchat.commands;
 
-import com.google.gson.JsonObject;
 import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.proxy.Player;
 import me.lucko.gchat.GChatPlayer;
 import me.lucko.gchat.GChatPlugin;
+import me.lucko.gchat.push.PushEvent;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 
@@ -48,13 +48,11 @@ public class PronounsCommand implements SimpleCommand {
             return;
         }
 
-        GChatPlayer gChatPlayer = GChatPlayer.get(player);
+        GChatPlayer gChatPlayer = GChatPlayer.getLoaded(player);
         gChatPlayer.setPronouns(pronouns);
 
-        if (GChatPlugin.shouldPushEvents()) {
-            JsonObject object = GChatPlugin.createObject("pronouns", player);
-            object.addProperty("pronouns", pronouns);
-            GChatPlugin.pushEvent(object);
+        if (GChatPlugin.shouldEmitEvents()) {
+            GChatPlugin.pushEvent(new PushEvent.PronounsEvent(player, pronouns));
         }
 
         source.sendMessage(Component.text("Your pronouns have been set to " + pronouns).color(NamedTextColor.AQUA));
@@ -1,24 +1,24 @@
 package me.lucko.gchat.commands;
 
 import com.google.common.collect.ImmutableList;
-import com.google.gson.JsonObject;
 import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.proxy.Player;
 import me.lucko.gchat.GChatPlayer;
 import me.lucko.gchat.GChatPlugin;
-import me.xdrop.fuzzywuzzy.FuzzySearch;
-import me.xdrop.fuzzywuzzy.model.ExtractedResult;
+import me.lucko.gchat.push.PushEvent;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.TimeZone;
 
 public class TimezoneCommand implements SimpleCommand {
 
+    public TimezoneCommand() {
+        // Build the timezone index now, instead of on the first keystroke
+        TimezoneIndex.getIds();
+    }
+
     @Override
     public void execute(Invocation invocation) {
 
@@ -35,50 +35,34 @@ public class TimezoneCommand implements SimpleCommand {
             return;
         }
 
-        String timezone = args[0];
+        String timezone = TimezoneIndex.find(args[0]);
 
-        List<String> timezones = Arrays.asList(TimeZone.getAvailableIDs());
-
-        if (!timezones.contains(timezone)) {
+        if (timezone == null) {
             source.sendMessage(Component.text("Failed to find that timezone!").color(NamedTextColor.RED));
             return;
         }
 
-        GChatPlayer gChatPlayer = GChatPlayer.get(player);
+        GChatPlayer gChatPlayer = GChatPlayer.getLoaded(player);
         gChatPlayer.setTimezone(timezone);
 
-        if (GChatPlugin.shouldPushEvents()) {
-            JsonObject object = GChatPlugin.createObject("timezone", player);
-            object.addProperty("timezone", timezone);
-            GChatPlugin.pushEvent(object);
+        if (GChatPlugin.shouldEmitEvents()) {
+            GChatPlugin.pushEvent(new PushEvent.TimezoneEvent(player, timezone));
         }
 
         source.sendMessage(Component.text("Your timezone has been set to " + timezone).color(NamedTextColor.AQUA));
     }
 
     public List<String> suggest(final SimpleCommand.Invocation invocation) {
-        List<String> args = Arrays.asList(invocation.arguments());
-        List<String> timezones = Arrays.asList(TimeZone.getAvailableIDs());
-
-        int size = args.size();
+        String[] args = invocation.arguments();
 
-        if (size > 1) {
+        if (args.length > 1) {
             return ImmutableList.of();
         }
 
-        if (size > 0) {
-            String query = args.get(0);
-            List<ExtractedResult> filtered = FuzzySearch.extractSorted(query, timezones, 80);
-
-            timezones = new ArrayList<>();
-
-            if (filtered.size() > 0) {
-                for (ExtractedResult entry : filtered) {
-                    timezones.add(entry.getString());
-                }
-            }
+        if (args.length > 0) {
+            return TimezoneIndex.suggest(args[0]);
         }
 
-        return timezones;
+        return TimezoneIndex.getIds();
     }
 }
@@ -0,0 +1,153 @@
+package me.lucko.gchat.commands;
+
+import me.xdrop.fuzzywuzzy.FuzzySearch;
+import me.xdrop.fuzzywuzzy.model.ExtractedResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * All known timezone ids, indexed once for the /timezone command.
+ *
+ * <p>Validation is a map lookup. Suggestions come from a binary search over
+ * the sorted ids (and over their city part, so "brus" finds Europe/Brussels).
+ * Only when nothing starts with the query is the fuzzy search used, and its
+ * results are remembered for the most recent queries.</p>
+ */
+public final class TimezoneIndex {
+
+    private static final int FUZZY_CUTOFF = 80;
+    private static final int MEMO_SIZE = 256;
+
+    private static final List<String> IDS;
+    private static final Map<String, String> BY_LOWERCASE = new HashMap<>();
+
+    // lowercased search keys, sorted, with the id each one belongs to
+    private static final String[] KEYS;
+    private static final String[] KEY_IDS;
+
+    private static final Map<String, List<String>> FUZZY_MEMO = new LinkedHashMap<>(MEMO_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return this.size() > MEMO_SIZE;
+        }
+    };
+
+    static {
+        String[] ids = TimeZone.getAvailableIDs();
+        Arrays.sort(ids);
+        IDS = Collections.unmodifiableList(Arrays.asList(ids));
+
+        List<String[]> keys = new ArrayList<>(ids.length * 2);
+
+        for (String id : ids) {
+            String lower = id.toLowerCase(Locale.ROOT);
+            BY_LOWERCASE.put(lower, id);
+            keys.add(new String[]{lower, id});
+
+            int slash = lower.lastIndexOf('/');
+
+            if (slash >= 0 && slash < lower.length() - 1) {
+                keys.add(new String[]{lower.substring(slash + 1), id});
+            }
+        }
+
+        keys.sort((a, b) -> a[0].compareTo(b[0]));
+
+        KEYS = new String[keys.size()];
+        KEY_IDS = new String[keys.size()];
+
+        for (int i = 0; i < keys.size(); i++) {
+            KEYS[i] = keys.get(i)[0];
+            KEY_IDS[i] = keys.get(i)[1];
+        }
+    }
+
+    private TimezoneIndex() {}
+
+    /**
+     * Get all timezone ids, sorted
+     */
+    public static List<String> getIds() {
+        return IDS;
+    }
+
+    /**
+     * Find the timezone id matching the given text, ignoring case
+     *
+     * @return   The id as Java knows it, or null if there is no such timezone
+     */
+    public static String find(String id) {
+        return BY_LOWERCASE.get(id.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Get suggestions for the given (partial) timezone
+     */
+    public static List<String> suggest(String query) {
+
+        String lower = query.toLowerCase(Locale.ROOT).trim();
+
+        if (lower.isEmpty()) {
+            return IDS;
+        }
+
+        List<String> result = startingWith(lower);
+
+        if (!result.isEmpty()) {
+            return result;
+        }
+
+        synchronized (FUZZY_MEMO) {
+            result = FUZZY_MEMO.get(lower);
+        }
+
+        if (result != null) {
+            return result;
+        }
+
+        result = new ArrayList<>();
+
+        for (ExtractedResult entry : FuzzySearch.extractSorted(query, IDS, FUZZY_CUTOFF)) {
+            result.add(entry.getString());
+        }
+
+        result = Collections.unmodifiableList(result);
+
+        synchronized (FUZZY_MEMO) {
+            FUZZY_MEMO.put(lower, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the ids, or their city part, starting with the given lowercase text
+     */
+    private static List<String> startingWith(String lower) {
+
+        int index = Arrays.binarySearch(KEYS, lower);
+
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        Set<String> result = new LinkedHashSet<>();
+
+        while (index < KEYS.length && KEYS[index].startsWith(lower)) {
+            result.add(KEY_IDS[index]);
+            index++;
+        }
+
+        return new ArrayList<>(result);
+    }
+}
@@ -5,7 +5,6 @@ import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.event.player.PlayerChatEvent;
 import com.velocitypowered.api.proxy.Player;
-import me.lucko.gchat.GChat;
 import me.lucko.gchat.GChatPlayer;
 import me.lucko.gchat.GChatPlugin;
 import me.lucko.gchat.api.ChatFormat;
@@ -122,9 +121,8 @@ public class WhisperCommand implements SimpleCommand  {
         }
 
         String query = args.get(0);
-        List<String> results = GChat.searchList(query, this.getNames());
 
-        return results;
+        return GChatPlayer.SESSIONS.getNames().complete(query);
     }
 
     /**
@@ -134,18 +132,6 @@ public class WhisperCommand implements SimpleCommand  {
      * @since    3.1.0
      */
     public List<String> getNames() {
-        List<String> names = new ArrayList<>();
-
-        for (Player player : GChatPlugin.instance.getProxy().getAllPlayers()) {
-            GChatPlayer gChatPlayer = GChatPlayer.get(player);
-
-            if (gChatPlayer.getNickname() != null) {
-                names.add(gChatPlayer.getNickname());
-            } else {
-                names.add(player.getUsername());
-            }
-        }
-
-        return names;
+        return GChatPlayer.SESSIONS.getNames().complete("");
     }
 }
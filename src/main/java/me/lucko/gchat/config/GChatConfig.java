@@ -26,6 +26,7 @@
 package me.lucko.gchat.config;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.reflect.TypeToken;
 import me.lucko.gchat.GChatPlugin;
 import me.lucko.gchat.api.ChatFormat;
@@ -52,19 +53,88 @@ public class GChatConfig {
     private final boolean requireReceivePermission;
     private final boolean requirePermissionPassthrough;
     private final boolean logChatGlobal;
+    private final boolean perRecipientEvents;
+    private final int pipelineThreads;
+    private final int pipelineQueueSize;
+    private final boolean placeholderCache;
+    private final int profileLoaderThreads;
+    private final int profileLoadTimeout;
+    private final int metaFlushInterval;
+    private final String profileStorage;
+    private final int metricsWindow;
+    private final int metricsSamples;
+    private final int metricsStaleAfter;
+    private final String routingInitialGroup;
+    private final double routingHysteresis;
+    private final double routingPlayerCost;
+    private final Map<String, List<String>> routingGroups;
     private final List<ChatFormat> formats;
     private final Style linkStyle;
     private final String tablist_header;
     private final String tablist_footer;
     private final Boolean has_tablist_config;
+    private final int tablist_entry_refresh;
+    private final int tablist_ping_bucket;
     private final Boolean push_events;
     private final URI push_event_endpoint;
+    private final int push_queue_size;
+    private final int push_batch_size;
+    private final int push_flush_interval;
+    private final int push_max_retries;
+    private final boolean push_gzip;
+    private final boolean push_spool;
+    private final int push_spool_max_size;
+    private final int push_delta_interval;
+    private final int push_ping_bucket;
+    private final boolean event_feed;
+    private final String event_feed_host;
+    private final int event_feed_port;
+    private final String event_feed_token;
+    private final int event_feed_max_subscribers;
+    private final int event_feed_buffer_size;
 
     public GChatConfig(ConfigurationNode c) {
         this.passthrough = c.getNode("passthrough").getBoolean(true);
 
         this.logChatGlobal = c.getNode("log-chat-global").getBoolean(true);
 
+        this.perRecipientEvents = c.getNode("per-recipient-events").getBoolean(false);
+
+        ConfigurationNode pipeline = c.getNode("chat-pipeline");
+        this.pipelineThreads = Math.max(1, pipeline.getNode("threads").getInt(2));
+        this.pipelineQueueSize = Math.max(1, pipeline.getNode("queue-size").getInt(1024));
+
+        this.placeholderCache = c.getNode("placeholder-cache").getBoolean(true);
+
+        ConfigurationNode profileLoading = c.getNode("profile-loading");
+        this.profileLoaderThreads = Math.max(1, profileLoading.getNode("threads").getInt(2));
+        this.profileLoadTimeout = Math.max(0, profileLoading.getNode("timeout").getInt(500));
+
+        this.metaFlushInterval = Math.max(100, c.getNode("meta-flush-interval").getInt(5000));
+        this.profileStorage = c.getNode("profile-storage").getString("luckperms").toLowerCase();
+
+        ConfigurationNode metrics = c.getNode("server-metrics");
+        this.metricsWindow = Math.max(1, metrics.getNode("window").getInt(10));
+        this.metricsSamples = Math.max(1, metrics.getNode("samples").getInt(30));
+        this.metricsStaleAfter = Math.max(1, metrics.getNode("stale-after").getInt(30));
+
+        ConfigurationNode routing = c.getNode("routing");
+        String initialGroup = routing.getNode("initial-group").getString("");
+        this.routingInitialGroup = initialGroup.isBlank() ? null : initialGroup.toLowerCase();
+        this.routingHysteresis = Math.max(0, routing.getNode("hysteresis").getDouble(5));
+        this.routingPlayerCost = Math.max(0, routing.getNode("player-cost").getDouble(1));
+
+        Map<String, List<String>> currentGroups = new HashMap<>();
+        for (Map.Entry<Object, ? extends ConfigurationNode> group : routing.getNode("groups").getChildrenMap().entrySet()) {
+            try {
+                currentGroups.put(group.getKey().toString().toLowerCase(), ImmutableList.copyOf(group.getValue().getList(TypeToken.of(String.class))));
+            } catch (ObjectMappingException e) {
+                throw new IllegalArgumentException("Invalid server list for routing group: " + group.getKey(), e);
+            }
+        }
+
+        this.routingGroups = ImmutableMap.copyOf(currentGroups);
+
         ConfigurationNode push_events = c.getNode("push-events");
 
         if (!push_events.isVirtual()) {
@@ -89,6 +159,25 @@ public class GChatConfig {
             this.push_event_endpoint = null;
         }
 
+        this.push_queue_size = Math.max(1, push_events.getNode("queue-size").getInt(10000));
+        this.push_batch_size = Math.max(1, push_events.getNode("batch-size").getInt(1));
+        this.push_flush_interval = Math.max(0, push_events.getNode("flush-interval").getInt(1000));
+        this.push_max_retries = Math.max(0, push_events.getNode("max-retries").getInt(3));
+        this.push_gzip = push_events.getNode("gzip").getBoolean(false);
+        this.push_spool = push_events.getNode("spool", "enabled").getBoolean(true);
+        this.push_spool_max_size = Math.max(1, push_events.getNode("spool", "max-size").getInt(64));
+        this.push_delta_interval = Math.max(1, push_events.getNode("player-list", "delta-interval").getInt(10));
+        this.push_ping_bucket = Math.max(1, push_events.getNode("player-list", "ping-bucket").getInt(50));
+
+        ConfigurationNode event_feed = c.getNode("event-feed");
+        this.event_feed = event_feed.getNode("enabled").getBoolean(false);
+        this.event_feed_host = event_feed.getNode("host").getString("127.0.0.1");
+        this.event_feed_port = event_feed.getNode("port").getInt(8765);
+        String token = event_feed.getNode("token").getString("");
+        this.event_feed_token = token.isBlank() ? null : token;
+        this.event_feed_max_subscribers = Math.max(1, event_feed.getNode("max-subscribers").getInt(16));
+        this.event_feed_buffer_size = Math.max(1, event_feed.getNode("buffer-size").getInt(256));
+
         ConfigurationNode requirePermission = c.getNode("require-permission");
         if (requirePermission.isVirtual()) {
             throw new IllegalArgumentException("Missing section: require-permission");
@@ -100,6 +189,8 @@ public class GChatConfig {
 
             this.tablist_header = this.getLinesAsString(tablist.getNode("header"));
             this.tablist_footer = this.getLinesAsString(tablist.getNode("footer"));
+            this.tablist_entry_refresh = Math.max(1, tablist.getNode("entry-refresh").getInt(10));
+            this.tablist_ping_bucket = Math.max(1, tablist.getNode("ping-bucket").getInt(50));
 
             if (this.tablist_header != null || this.tablist_footer != null) {
                 this.has_tablist_config = true;
@@ -109,6 +200,8 @@ public class GChatConfig {
         } else {
             this.tablist_header = null;
             this.tablist_footer = null;
+            this.tablist_entry_refresh = 10;
+            this.tablist_ping_bucket = 50;
             this.has_tablist_config = false;
         }
 
@@ -179,6 +272,66 @@ public class GChatConfig {
         return this.push_event_endpoint;
     }
 
+    public int getPushQueueSize() {
+        return this.push_queue_size;
+    }
+
+    public int getPushBatchSize() {
+        return this.push_batch_size;
+    }
+
+    public int getPushFlushInterval() {
+        return this.push_flush_interval;
+    }
+
+    public int getPushMaxRetries() {
+        return this.push_max_retries;
+    }
+
+    public boolean isPushGzip() {
+        return this.push_gzip;
+    }
+
+    public boolean isPushSpool() {
+        return this.push_spool;
+    }
+
+    public int getPushSpoolMaxSize() {
+        return this.push_spool_max_size;
+    }
+
+    public int getPushDeltaInterval() {
+        return this.push_delta_interval;
+    }
+
+    public int getPushPingBucket() {
+        return this.push_ping_bucket;
+    }
+
+    public boolean isEventFeed() {
+        return this.event_feed;
+    }
+
+    public String getEventFeedHost() {
+        return this.event_feed_host;
+    }
+
+    public int getEventFeedPort() {
+        return this.event_feed_port;
+    }
+
+    public String getEventFeedToken() {
+        return this.event_feed_token;
+    }
+
+    public int getEventFeedMaxSubscribers() {
+        return this.event_feed_max_subscribers;
+    }
+
+    public int getEventFeedBufferSize() {
+        return this.event_feed_buffer_size;
+    }
+
     private String getLinesAsString(ConfigurationNode node) {
 
         if (node.isEmpty()) {
@@ -212,6 +365,20 @@ public class GChatConfig {
         return this.tablist_footer;
     }
 
+    /**
+     * Get the amount of seconds a player's tab entry is reused before it is formatted again
+     */
+    public int getTablistEntryRefresh() {
+        return this.tablist_entry_refresh;
+    }
+
+    /**
+     * Get in how big steps a ping change is sent to the tablist, in milliseconds
+     */
+    public int getTablistPingBucket() {
+        return this.tablist_ping_bucket;
+    }
+
     public boolean isPassthrough() {
         return this.passthrough;
     }
@@ -236,6 +403,75 @@ public class GChatConfig {
         return this.logChatGlobal;
     }
 
+    public boolean isPerRecipientEvents() {
+        return this.perRecipientEvents;
+    }
+
+    public int getPipelineThreads() {
+        return this.pipelineThreads;
+    }
+
+    public int getPipelineQueueSize() {
+        return this.pipelineQueueSize;
+    }
+
+    public boolean isPlaceholderCache() {
+        return this.placeholderCache;
+    }
+
+    public int getProfileLoaderThreads() {
+        return this.profileLoaderThreads;
+    }
+
+    public int getProfileLoadTimeout() {
+        return this.profileLoadTimeout;
+    }
+
+    public int getMetaFlushInterval() {
+        return this.metaFlushInterval;
+    }
+
+    public String getProfileStorage() {
+        return this.profileStorage;
+    }
+
+    public int getMetricsWindow() {
+        return this.metricsWindow;
+    }
+
+    public int getMetricsSamples() {
+        return this.metricsSamples;
+    }
+
+    public int getMetricsStaleAfter() {
+        return this.metricsStaleAfter;
+    }
+
+    /**
+     * Get the routing group new players are sent to, or null to leave it to Velocity
+     */
+    public String getRoutingInitialGroup() {
+        return this.routingInitialGroup;
+    }
+
+    /**
+     * Get how much lower another server's MSPT must be before the group switches to it
+     */
+    public double getRoutingHysteresis() {
+        return this.routingHysteresis;
+    }
+
+    /**
+     * Get how many milliseconds of MSPT every player sent to a server adds, until it reports again
+     */
+    public double getRoutingPlayerCost() {
+        return this.routingPlayerCost;
+    }
+
+    public Map<String, List<String>> getRoutingGroups() {
+        return this.routingGroups;
+    }
+
     public List<ChatFormat> getFormats() {
         return this.formats;
     }
@@ -0,0 +1,48 @@
+package me.lucko.gchat.hooks;
+
+import me.lucko.gchat.GChatPlayer;
+import me.lucko.gchat.GChatPlugin;
+import me.lucko.gchat.tab.GChatTabList;
+import net.luckperms.api.LuckPermsProvider;
+import net.luckperms.api.event.user.UserDataRecalculateEvent;
+
+import java.util.UUID;
+
+/**
+ * Keeps the loaded player profiles in sync with LuckPerms,
+ * so they don't have to be reloaded on every server switch
+ */
+public class LuckPermsEventHook {
+
+    private final GChatPlugin plugin;
+
+    public LuckPermsEventHook(GChatPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    public void register() {
+        LuckPermsProvider.get().getEventBus().subscribe(this.plugin, UserDataRecalculateEvent.class, this::onUserDataRecalculate);
+    }
+
+    /**
+     * A user's meta, groups or permissions changed
+     */
+    private void onUserDataRecalculate(UserDataRecalculateEvent event) {
+        UUID uuid = event.getUser().getUniqueId();
+        GChatPlayer gplayer = GChatPlayer.get(uuid);
+
+        // Not online, or not loaded yet: it'll be up to date once it is
+        if (gplayer == null) {
+            return;
+        }
+
+        gplayer.refresh();
+
+        // Prefixes, suffixes and other meta placeholders may have changed too
+        this.plugin.getPlaceholderRegistry().getCache().invalidate(uuid);
+
+        if (GChatTabList.instance != null) {
+            GChatTabList.instance.invalidateDisplay(uuid);
+        }
+    }
+}
@@ -27,12 +27,21 @@ package me.lucko.gchat.hooks;
 
 import com.velocitypowered.api.proxy.Player;
 import me.lucko.gchat.api.Placeholder;
+import me.lucko.gchat.api.PlaceholderCachePolicy;
 import me.lucko.luckperms.placeholders.LPPlaceholderProvider;
 import me.lucko.luckperms.placeholders.PlaceholderPlatform;
 import net.luckperms.api.LuckPerms;
 import net.luckperms.api.LuckPermsProvider;
 
+import java.time.Duration;
+import java.util.Set;
+
 public class LuckPermsHook implements Placeholder, PlaceholderPlatform {
+    private static final Set<String> PREFIXES = Set.of("lp_", "luckperms_");
+
+    // meta like prefixes and suffixes rarely changes, and resolving it walks the user's inherited nodes
+    private static final PlaceholderCachePolicy CACHE_POLICY = PlaceholderCachePolicy.perPlayer(Duration.ofSeconds(5));
+
     private final LuckPerms luckPerms;
     private final LPPlaceholderProvider provider;
 
@@ -58,6 +67,16 @@ public class LuckPermsHook implements Placeholder, PlaceholderPlatform {
         return this.provider.onPlaceholderRequest(player, player.getUniqueId(), identifier);
     }
 
+    @Override
+    public Set<String> getPrefixes() {
+        return PREFIXES;
+    }
+
+    @Override
+    public PlaceholderCachePolicy getCachePolicy(String definition) {
+        return CACHE_POLICY;
+    }
+
     @Override
     public String formatBoolean(boolean b) {
         return b ? "yes" : "no";
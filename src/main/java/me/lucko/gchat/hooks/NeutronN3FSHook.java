@@ -2,10 +2,9 @@ package me.lucko.gchat.hooks;
 
 import com.velocitypowered.api.event.PostOrder;
 import com.velocitypowered.api.event.Subscribe;
-import com.velocitypowered.api.event.player.PlayerChatEvent;
 import me.crypnotic.neutron.NeutronPlugin;
 import me.crypnotic.neutron.api.Neutron;
-import me.lucko.gchat.api.events.GChatMessageSendEvent;
+import me.lucko.gchat.api.events.GChatBroadcastEvent;
 
 public class NeutronN3FSHook {
 
@@ -16,14 +15,11 @@ public class NeutronN3FSHook {
     }
 
     @Subscribe(order = PostOrder.LATE)
-    public void onMessageSend(GChatMessageSendEvent e) {
-        neutron.getUserManager()
-                .getUser(e.getRecipient())
-                .ifPresent(user -> {
-                    if (user.isIgnoringPlayer(e.getSender())) {
-                        e.setResult(PlayerChatEvent.ChatResult.denied());
-                    }
-                });
+    public void onBroadcast(GChatBroadcastEvent e) {
+        e.getRecipients().removeIf(recipient -> neutron.getUserManager()
+                .getUser(recipient)
+                .map(user -> user.isIgnoringPlayer(e.getSender()))
+                .orElse(false));
     }
 
 }
@@ -3,8 +3,10 @@ package me.lucko.gchat.hooks;
 import com.google.common.io.ByteArrayDataInput;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.connection.PluginMessageEvent;
+import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ServerConnection;
 import com.velocitypowered.api.proxy.messages.ChannelIdentifier;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
 import me.lucko.gchat.GChatPlugin;
 
 import java.util.UUID;
@@ -74,12 +76,33 @@ public class PluginMessageHook {
         String target_server = packet.readUTF();
         //String username = packet.readUTF();
 
-        System.out.println("Server move: " + target_server + " for " + uuid);
+        Player player = this.plugin.getProxy().getPlayer(uuid).orElse(null);
 
-        //((ServerConnection) e.getSource()).getPlayer().
+        if (player == null) {
+            return;
+        }
+
+        ServerConnection current = player.getCurrentServer().orElse(null);
+
+        // A server may only move its own players
+        if (current == null || !current.getServerInfo().getName().equals(server.getServerInfo().getName())) {
+            this.plugin.getLogger().warn("Server '" + server.getServerInfo().getName() + "' tried to move " + player.getUsername() + ", who is not connected to it");
+            return;
+        }
 
+        // The target can be a single server, or a routing group
+        RegisteredServer target = this.plugin.getServerRouter().route(target_server).orElse(null);
 
+        if (target == null) {
+            this.plugin.getLogger().warn("Server '" + server.getServerInfo().getName() + "' tried to move " + player.getUsername() + " to unknown server '" + target_server + "'");
+            return;
+        }
+
+        if (current.getServerInfo().getName().equals(target.getServerInfo().getName())) {
+            return;
+        }
 
+        player.createConnectionRequest(target).fireAndForget();
     }
 
     private boolean isBlackblockMessage(ChannelIdentifier identifier) {
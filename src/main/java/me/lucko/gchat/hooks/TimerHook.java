@@ -1,5 +1,6 @@
 package me.lucko.gchat.hooks;
 
+import me.lucko.gchat.GChatPlugin;
 import me.lucko.gchat.tab.GChatTabList;
 
 import java.util.TimerTask;
@@ -8,6 +9,10 @@ public class TimerHook extends TimerTask {
 
     @Override
     public void run() {
+        if (GChatPlugin.instance != null) {
+            GChatPlugin.instance.getPlaceholderRegistry().getCache().cleanUp();
+        }
+
         if (GChatTabList.instance != null) {
             GChatTabList.instance.update();
         }
@@ -0,0 +1,128 @@
+package me.lucko.gchat.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the tick metrics reported by each backend server.
+ *
+ * <p>Every server has a single immutable {@link ServerMetrics} snapshot that
+ * is swapped atomically when a report comes in, so reports from plugin
+ * message threads never block readers on the tab list or chat threads,
+ * and a reader always sees values that belong together.</p>
+ *
+ * <p>A server that hasn't reported for a while (because it crashed or was
+ * stopped) is considered stale, and its values are no longer handed out.</p>
+ */
+public class MetricsStore {
+
+    private final Map<String, AtomicReference<ServerMetrics>> servers = new ConcurrentHashMap<>();
+
+    private volatile long window_nanos;
+    private volatile int window_size;
+    private volatile long stale_nanos;
+
+    public MetricsStore(int window_seconds, int window_size, int stale_seconds) {
+        this.configure(window_seconds, window_size, stale_seconds);
+    }
+
+    /**
+     * Change the smoothing settings, existing values are kept
+     *
+     * @param   window_seconds   The time constant of the moving averages
+     * @param   window_size      How many reports to keep for min/max/p95
+     * @param   stale_seconds    After how long without reports a server is stale
+     */
+    public void configure(int window_seconds, int window_size, int stale_seconds) {
+        this.window_nanos = TimeUnit.SECONDS.toNanos(Math.max(1, window_seconds));
+        this.window_size = Math.max(1, window_size);
+        this.stale_nanos = TimeUnit.SECONDS.toNanos(Math.max(1, stale_seconds));
+    }
+
+    /**
+     * Add a report of the given server
+     *
+     * @return   The new snapshot of that server
+     */
+    public ServerMetrics report(String server, float mspt, float tps, int load) {
+        long now = System.nanoTime();
+        long window_nanos = this.window_nanos;
+        int window_size = this.window_size;
+
+        AtomicReference<ServerMetrics> reference = this.servers.computeIfAbsent(server, key -> new AtomicReference<>());
+
+        return reference.updateAndGet(previous -> {
+            if (previous == null) {
+                return ServerMetrics.first(server, now, mspt, tps, load, window_size);
+            }
+
+            return previous.add(now, mspt, tps, load, window_nanos, window_size);
+        });
+    }
+
+    /**
+     * Get the current snapshot of the given server,
+     * or null if it never reported or has gone stale
+     */
+    public ServerMetrics getFresh(String server) {
+        ServerMetrics result = this.get(server);
+
+        if (result == null || this.isStale(result)) {
+            return null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Has the given server not reported for longer than the configured interval?
+     */
+    public boolean isStale(ServerMetrics metrics) {
+        return metrics.isStale(System.nanoTime(), this.stale_nanos);
+    }
+
+    /**
+     * Get the current snapshot of the given server, even if it is stale,
+     * or null if it never reported
+     */
+    public ServerMetrics get(String server) {
+        AtomicReference<ServerMetrics> reference = this.servers.get(server);
+
+        if (reference == null) {
+            return null;
+        }
+
+        return reference.get();
+    }
+
+    /**
+     * Get human readable statistics, one line per server
+     */
+    public List<String> getStats() {
+        List<String> result = new ArrayList<>();
+
+        long now = System.nanoTime();
+
+        result.add("Server metrics: " + this.servers.size() + " servers reporting");
+
+        for (AtomicReference<ServerMetrics> reference : this.servers.values()) {
+            ServerMetrics metrics = reference.get();
+
+            if (metrics == null) {
+                continue;
+            }
+
+            if (metrics.isStale(now, this.stale_nanos)) {
+                result.add(" - " + metrics.getServer() + ": stale, no report for " + TimeUnit.NANOSECONDS.toSeconds(now - metrics.getUpdated()) + "s");
+            } else {
+                result.add(" - " + metrics);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+package me.lucko.gchat.metrics;
+
+import java.util.Arrays;
+
+/**
+ * The last N values of a single metric, with their min, max and 95th percentile.
+ * Instances are immutable: adding a value returns a new window
+ */
+public final class SampleWindow {
+
+    private static final SampleWindow EMPTY = new SampleWindow(new float[0]);
+
+    private final float[] samples;
+    private final float min;
+    private final float max;
+    private final float p95;
+
+    private SampleWindow(float[] samples) {
+        this.samples = samples;
+
+        if (samples.length == 0) {
+            this.min = -1f;
+            this.max = -1f;
+            this.p95 = -1f;
+            return;
+        }
+
+        float[] sorted = samples.clone();
+        Arrays.sort(sorted);
+
+        this.min = sorted[0];
+        this.max = sorted[sorted.length - 1];
+        this.p95 = sorted[(int) Math.ceil(0.95 * sorted.length) - 1];
+    }
+
+    public static SampleWindow empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Get a new window with the given value added,
+     * dropping the oldest values to keep at most size values
+     */
+    public SampleWindow add(float value, int size) {
+        int keep = Math.min(this.samples.length, size - 1);
+        float[] samples = new float[keep + 1];
+
+        System.arraycopy(this.samples, this.samples.length - keep, samples, 0, keep);
+        samples[keep] = value;
+
+        return new SampleWindow(samples);
+    }
+
+    public int size() {
+        return this.samples.length;
+    }
+
+    public float getMin() {
+        return this.min;
+    }
+
+    public float getMax() {
+        return this.max;
+    }
+
+    public float getP95() {
+        return this.p95;
+    }
+}
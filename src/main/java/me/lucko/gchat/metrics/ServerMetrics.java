@@ -0,0 +1,126 @@
+package me.lucko.gchat.metrics;
+
+/**
+ * An immutable snapshot of the tick metrics a backend server reported.
+ *
+ * <p>The smoothed values are exponentially weighted moving averages over
+ * time: a report that arrives after a long pause weighs more than one that
+ * arrives right after the previous, so the result doesn't depend on how
+ * often a server reports.</p>
+ */
+public final class ServerMetrics {
+
+    private final String server;
+    private final long reports;
+    private final long updated;
+
+    private final double mspt;
+    private final double tps;
+    private final double load;
+
+    private final SampleWindow mspt_window;
+    private final SampleWindow tps_window;
+    private final SampleWindow load_window;
+
+    private ServerMetrics(String server, long reports, long updated, double mspt, double tps, double load, SampleWindow mspt_window, SampleWindow tps_window, SampleWindow load_window) {
+        this.server = server;
+        this.reports = reports;
+        this.updated = updated;
+        this.mspt = mspt;
+        this.tps = tps;
+        this.load = load;
+        this.mspt_window = mspt_window;
+        this.tps_window = tps_window;
+        this.load_window = load_window;
+    }
+
+    /**
+     * Create the snapshot of a server's very first report
+     */
+    static ServerMetrics first(String server, long now, float mspt, float tps, int load, int window_size) {
+        return new ServerMetrics(server, 1, now, mspt, tps, load,
+                SampleWindow.empty().add(mspt, window_size),
+                SampleWindow.empty().add(tps, window_size),
+                SampleWindow.empty().add(load, window_size));
+    }
+
+    /**
+     * Create a new snapshot with the given report added
+     *
+     * @param   now            When the report arrived, in System.nanoTime()
+     * @param   window_nanos   The time constant of the moving averages
+     * @param   window_size    How many reports to keep for min/max/p95
+     */
+    ServerMetrics add(long now, float mspt, float tps, int load, long window_nanos, int window_size) {
+
+        // the weight of the new value grows with the time since the previous report
+        double alpha = 1d - Math.exp(-Math.max(0, now - this.updated) / (double) window_nanos);
+
+        return new ServerMetrics(this.server, this.reports + 1, now,
+                this.mspt + alpha * (mspt - this.mspt),
+                this.tps + alpha * (tps - this.tps),
+                this.load + alpha * (load - this.load),
+                this.mspt_window.add(mspt, window_size),
+                this.tps_window.add(tps, window_size),
+                this.load_window.add(load, window_size));
+    }
+
+    public String getServer() {
+        return this.server;
+    }
+
+    /**
+     * Get how many reports this server sent
+     */
+    public long getReports() {
+        return this.reports;
+    }
+
+    /**
+     * Get when the last report arrived, in System.nanoTime()
+     */
+    public long getUpdated() {
+        return this.updated;
+    }
+
+    /**
+     * Has this server not reported for longer than the given time?
+     */
+    public boolean isStale(long now, long stale_nanos) {
+        return now - this.updated > stale_nanos;
+    }
+
+    public float getMSPT() {
+        return (float) this.mspt;
+    }
+
+    public float getTPS() {
+        return (float) this.tps;
+    }
+
+    public int getLoad() {
+        return (int) Math.round(this.load);
+    }
+
+    public SampleWindow getMSPTWindow() {
+        return this.mspt_window;
+    }
+
+    public SampleWindow getTPSWindow() {
+        return this.tps_window;
+    }
+
+    public SampleWindow getLoadWindow() {
+        return this.load_window;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: tps %.1f (min %.1f), mspt %.1f (p95 %.1f, max %.1f), load %d%% (p95 %.0f%%), %d reports",
+                this.server,
+                this.getTPS(), this.tps_window.getMin(),
+                this.getMSPT(), this.mspt_window.getP95(), this.mspt_window.getMax(),
+                this.getLoad(), this.load_window.getP95(),
+                this.reports);
+    }
+}
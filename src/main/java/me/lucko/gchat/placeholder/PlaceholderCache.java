@@ -0,0 +1,157 @@
+/*
+ * This file is part of gChat, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.gchat.placeholder;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ServerConnection;
+import me.lucko.gchat.api.Placeholder;
+import me.lucko.gchat.api.PlaceholderCachePolicy;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches placeholder replacements according to the {@link PlaceholderCachePolicy}
+ * their {@link Placeholder} declares.
+ */
+public class PlaceholderCache {
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+
+        if (!enabled) {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * Get the replacement from the given placeholder, reusing a cached value when allowed
+     */
+    public String get(Placeholder placeholder, Player player, String definition) {
+
+        if (!this.enabled) {
+            return placeholder.getReplacement(player, definition);
+        }
+
+        PlaceholderCachePolicy policy = placeholder.getCachePolicy(definition);
+        Key key = policy == null ? null : createKey(policy, player, definition);
+
+        if (key == null) {
+            return placeholder.getReplacement(player, definition);
+        }
+
+        long now = System.nanoTime();
+        Entry entry = this.entries.get(key);
+
+        if (entry != null && now - entry.expires < 0) {
+            return entry.value;
+        }
+
+        String value = placeholder.getReplacement(player, definition);
+
+        // null means "not mine", the next placeholder should get a chance
+        if (value != null) {
+            this.entries.put(key, new Entry(value, now + policy.getTtlNanos()));
+        }
+
+        return value;
+    }
+
+    /**
+     * Forget all values cached for the given player
+     */
+    public void invalidate(UUID player_uuid) {
+        this.entries.keySet().removeIf(key -> player_uuid.equals(key.owner));
+    }
+
+    /**
+     * Forget all values cached for the given definition
+     */
+    public void invalidate(String definition) {
+        this.entries.keySet().removeIf(key -> key.definition.equals(definition));
+    }
+
+    public void invalidateAll() {
+        this.entries.clear();
+    }
+
+    /**
+     * Remove all expired entries
+     */
+    public void cleanUp() {
+        long now = System.nanoTime();
+        this.entries.values().removeIf(entry -> now - entry.expires >= 0);
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    private static Key createKey(PlaceholderCachePolicy policy, Player player, String definition) {
+
+        switch (policy.getScope()) {
+            case GLOBAL:
+                return new Key(definition, null);
+
+            case SERVER:
+                if (player == null) {
+                    return null;
+                }
+
+                ServerConnection connection = player.getCurrentServer().orElse(null);
+
+                if (connection == null) {
+                    return null;
+                }
+
+                return new Key(definition, connection.getServerInfo().getName());
+
+            case PLAYER:
+                if (player == null) {
+                    return null;
+                }
+
+                return new Key(definition, player.getUniqueId());
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param definition  the placeholder definition
+     * @param owner       null for global values, the server name or the player uuid otherwise
+     */
+    private record Key(String definition, Object owner) {
+    }
+
+    private record Entry(String value, long expires) {
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * This file is part of gChat, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.gchat.placeholder;
+
+import com.google.common.collect.ImmutableSet;
+import com.velocitypowered.api.proxy.Player;
+import me.lucko.gchat.api.Placeholder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds all registered placeholders, indexed by the names and prefixes they declare.
+ *
+ * <p>The index is rebuilt whenever a placeholder is (un)registered, which is rare,
+ * so resolving a definition never has to ask every provider in turn.</p>
+ */
+public class PlaceholderRegistry {
+
+    private final List<Placeholder> placeholders = new CopyOnWriteArrayList<>();
+    private final PlaceholderCache cache = new PlaceholderCache();
+    private volatile Index index = new Index(List.of());
+
+    public synchronized boolean register(Placeholder placeholder) {
+
+        if (this.placeholders.contains(placeholder)) {
+            return false;
+        }
+
+        this.placeholders.add(placeholder);
+        this.index = new Index(this.placeholders);
+        return true;
+    }
+
+    public synchronized boolean unregister(Placeholder placeholder) {
+
+        if (!this.placeholders.remove(placeholder)) {
+            return false;
+        }
+
+        this.index = new Index(this.placeholders);
+        return true;
+    }
+
+    public ImmutableSet<Placeholder> getPlaceholders() {
+        return ImmutableSet.copyOf(this.placeholders);
+    }
+
+    public PlaceholderCache getCache() {
+        return this.cache;
+    }
+
+    public boolean isEmpty() {
+        return this.placeholders.isEmpty();
+    }
+
+    /**
+     * Resolve a placeholder definition
+     *
+     * @param player      the player to resolve it for
+     * @param definition  the definition, without the outer brackets
+     * @return the replacement, or null if no placeholder could satisfy it
+     */
+    public String resolve(Player player, String definition) {
+        return this.index.resolve(this.cache, player, definition);
+    }
+
+    /**
+     * An immutable snapshot of the registered placeholders
+     */
+    private static final class Index {
+        private final Map<String, Placeholder> names = new HashMap<>();
+        private final PrefixNode prefixes = new PrefixNode();
+        private final Placeholder[] unindexed;
+
+        private Index(List<Placeholder> placeholders) {
+            List<Placeholder> unindexed = new ArrayList<>();
+
+            // the first registered placeholder wins when names or prefixes overlap
+            for (Placeholder placeholder : placeholders) {
+
+                if (placeholder.getNames().isEmpty() && placeholder.getPrefixes().isEmpty()) {
+                    unindexed.add(placeholder);
+                    continue;
+                }
+
+                for (String name : placeholder.getNames()) {
+                    this.names.putIfAbsent(name.toLowerCase(Locale.ROOT), placeholder);
+                }
+
+                for (String prefix : placeholder.getPrefixes()) {
+                    PrefixNode node = this.prefixes;
+
+                    for (int i = 0; i < prefix.length(); i++) {
+                        node = node.children.computeIfAbsent(prefix.charAt(i), c -> new PrefixNode());
+                    }
+
+                    if (node.placeholder == null) {
+                        node.placeholder = placeholder;
+                    }
+                }
+            }
+
+            this.unindexed = unindexed.toArray(new Placeholder[0]);
+        }
+
+        private String resolve(PlaceholderCache cache, Player player, String definition) {
+            String replacement;
+
+            Placeholder exact = this.names.get(definition.toLowerCase(Locale.ROOT));
+            if (exact != null) {
+                replacement = cache.get(exact, player, definition);
+
+                if (replacement != null) {
+                    return replacement;
+                }
+            }
+
+            replacement = this.resolvePrefix(cache, player, definition);
+            if (replacement != null) {
+                return replacement;
+            }
+
+            for (Placeholder placeholder : this.unindexed) {
+                replacement = cache.get(placeholder, player, definition);
+
+                if (replacement != null) {
+                    return replacement;
+                }
+            }
+
+            return null;
+        }
+
+        private String resolvePrefix(PlaceholderCache cache, Player player, String definition) {
+
+            if (this.prefixes.children.isEmpty()) {
+                return null;
+            }
+
+            // walk the trie, remembering every placeholder whose prefix matches
+            List<Placeholder> matches = null;
+            PrefixNode node = this.prefixes;
+
+            for (int i = 0; i < definition.length(); i++) {
+                node = node.children.get(definition.charAt(i));
+
+                if (node == null) {
+                    break;
+                }
+
+                if (node.placeholder != null) {
+                    if (matches == null) {
+                        matches = new ArrayList<>(2);
+                    }
+
+                    matches.add(node.placeholder);
+                }
+            }
+
+            if (matches == null) {
+                return null;
+            }
+
+            // longest prefix first
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                String replacement = cache.get(matches.get(i), player, definition);
+
+                if (replacement != null) {
+                    return replacement;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private static final class PrefixNode {
+        private final Map<Character, PrefixNode> children = new HashMap<>();
+        private Placeholder placeholder = null;
+    }
+}
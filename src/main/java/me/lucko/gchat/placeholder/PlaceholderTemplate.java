@@ -0,0 +1,224 @@
+/*
+ * This file is part of gChat, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.gchat.placeholder;
+
+import com.google.common.collect.ImmutableSet;
+import com.velocitypowered.api.proxy.Player;
+import me.lucko.gchat.api.Placeholder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A pre-parsed piece of text containing "{placeholder}" tokens.
+ *
+ * <p>The text is split once into literal runs and slots, so rendering is a single
+ * append pass without any regex matching or intermediate string replacement.</p>
+ */
+public final class PlaceholderTemplate {
+
+    /**
+     * Slots with these names are filled from the render parameters first
+     */
+    private static final Set<String> PARAMETER_NAMES = ImmutableSet.of("message", "server", "sender", "receiver");
+
+    private final String source;
+    private final Segment[] segments;
+    private final int literalLength;
+
+    private PlaceholderTemplate(String source, Segment[] segments, int literalLength) {
+        this.source = source;
+        this.segments = segments;
+        this.literalLength = literalLength;
+    }
+
+    /**
+     * Compile the given text, or return null if the text is null
+     */
+    public static PlaceholderTemplate compile(String text) {
+
+        if (text == null) {
+            return null;
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        int literalLength = 0;
+        int literalStart = 0;
+        int length = text.length();
+        int i = 0;
+
+        while (i < length) {
+
+            if (text.charAt(i) != '{') {
+                i++;
+                continue;
+            }
+
+            // find the end of the token, a nested '{' restarts the search from there
+            int end = i + 1;
+            while (end < length && text.charAt(end) != '}' && text.charAt(end) != '{') {
+                end++;
+            }
+
+            if (end >= length || text.charAt(end) == '{') {
+                i = end;
+                continue;
+            }
+
+            // "{}" is not a slot
+            if (end == i + 1) {
+                i = end + 1;
+                continue;
+            }
+
+            if (i > literalStart) {
+                segments.add(Segment.literal(text.substring(literalStart, i)));
+                literalLength += i - literalStart;
+            }
+
+            segments.add(Segment.slot(text.substring(i + 1, end)));
+
+            i = end + 1;
+            literalStart = i;
+        }
+
+        if (literalStart < length) {
+            segments.add(Segment.literal(text.substring(literalStart)));
+            literalLength += length - literalStart;
+        }
+
+        return new PlaceholderTemplate(text, segments.toArray(new Segment[0]), literalLength);
+    }
+
+    /**
+     * Get the text this template was compiled from
+     */
+    public String getSource() {
+        return this.source;
+    }
+
+    /**
+     * Does this template contain any slots?
+     */
+    public boolean hasSlots() {
+        for (Segment segment : this.segments) {
+            if (segment.name != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Render this template to a new string
+     *
+     * @param player      the player to resolve placeholders for
+     * @param parameters  optional values for parameter slots like {message}
+     * @param resolver    resolves placeholder slots
+     */
+    public String render(Player player, Map<String, String> parameters, Placeholder resolver) {
+
+        if (this.segments.length == 1 && this.segments[0].name == null) {
+            return this.source;
+        }
+
+        StringBuilder builder = new StringBuilder(this.literalLength + 16 * this.segments.length);
+        this.renderTo(builder, player, parameters, resolver);
+        return builder.toString();
+    }
+
+    /**
+     * Render this template into the given builder
+     */
+    public void renderTo(StringBuilder builder, Player player, Map<String, String> parameters, Placeholder resolver) {
+
+        for (Segment segment : this.segments) {
+
+            if (segment.name == null) {
+                builder.append(segment.text);
+                continue;
+            }
+
+            String value = null;
+
+            if (segment.parameter) {
+                value = getParameter(parameters, segment.name);
+
+                if (value == null && resolver != null) {
+                    value = resolver.getReplacement(player, segment.name);
+                }
+            } else {
+                if (resolver != null) {
+                    value = resolver.getReplacement(player, segment.name);
+                }
+
+                if (value == null) {
+                    value = getParameter(parameters, segment.name);
+                }
+            }
+
+            // unresolved slots are kept as they were written
+            builder.append(value == null ? segment.text : value);
+        }
+    }
+
+    private static String getParameter(Map<String, String> parameters, String name) {
+
+        if (parameters == null) {
+            return null;
+        }
+
+        return parameters.get(name);
+    }
+
+    @Override
+    public String toString() {
+        return this.source;
+    }
+
+    private static final class Segment {
+        private final String text;
+        private final String name;
+        private final boolean parameter;
+
+        private Segment(String text, String name, boolean parameter) {
+            this.text = text;
+            this.name = name;
+            this.parameter = parameter;
+        }
+
+        static Segment literal(String text) {
+            return new Segment(text, null, false);
+        }
+
+        static Segment slot(String name) {
+            return new Segment("{" + name + "}", name, PARAMETER_NAMES.contains(name));
+        }
+    }
+}
@@ -29,12 +29,58 @@ import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ServerConnection;
 import me.lucko.gchat.GChatPlayer;
 import me.lucko.gchat.api.Placeholder;
+import me.lucko.gchat.api.PlaceholderCachePolicy;
+
+import java.time.Duration;
+import java.util.Set;
 
 public class StandardPlaceholders implements Placeholder {
 
     private static final String TPS_FORMAT = "%.1f";
     private static final String MSPT_FORMAT = "%.1f";
 
+    // shown instead of server metrics that are unknown or stale
+    private static final String UNKNOWN = "?";
+
+    private static final Set<String> NAMES = Set.of(
+            "username", "name", "display_username", "display_name", "coloured_display_name",
+            "server_name", "uuid", "pronouns", "pronouns_suffix", "timezone", "now",
+            "server_load", "server_load_coloured", "mspt", "tps", "ping"
+    );
+
+    private static final Set<String> PREFIXES = Set.of("has_perm_");
+
+    // backend servers report their metrics every few seconds
+    private static final PlaceholderCachePolicy SERVER_METRICS_POLICY = PlaceholderCachePolicy.perServer(Duration.ofSeconds(1));
+    private static final PlaceholderCachePolicy PING_POLICY = PlaceholderCachePolicy.perPlayer(Duration.ofSeconds(5));
+
+    @Override
+    public Set<String> getNames() {
+        return NAMES;
+    }
+
+    @Override
+    public Set<String> getPrefixes() {
+        return PREFIXES;
+    }
+
+    @Override
+    public PlaceholderCachePolicy getCachePolicy(String definition) {
+
+        // the other placeholders are simple field lookups, caching them would cost more than it saves
+        switch (definition.toLowerCase()) {
+            case "server_load":
+            case "server_load_coloured":
+            case "mspt":
+            case "tps":
+                return SERVER_METRICS_POLICY;
+            case "ping":
+                return PING_POLICY;
+            default:
+                return null;
+        }
+    }
+
     @Override
     public String getReplacement(Player player, String definition) {
 
@@ -86,12 +132,16 @@ public class StandardPlaceholders implements Placeholder {
                 result = GChatPlayer.get(player).getCurrentTime();
                 break;
             case "server_load":
-                result = ""+GChatPlayer.get(player).getServerLoad();
+                int server_load = GChatPlayer.get(player).getServerLoad();
+                result = server_load < 0 ? UNKNOWN : "" + server_load;
                 break;
             case "server_load_coloured":
                 int load = GChatPlayer.get(player).getServerLoad();
 
-                if (load > 100) {
+                if (load < 0) {
+                    // Gray
+                    result = "&7" + UNKNOWN;
+                } else if (load > 100) {
                     // Dark red
                     result = "&4" + load;
                 } else if (load > 85) {
@@ -106,10 +156,12 @@ public class StandardPlaceholders implements Placeholder {
                 }
                 break;
             case "mspt":
-                result = String.format(MSPT_FORMAT, GChatPlayer.get(player).getMSPT());
+                float mspt = GChatPlayer.get(player).getMSPT();
+                result = mspt < 0 ? UNKNOWN : String.format(MSPT_FORMAT, mspt);
                 break;
             case "tps":
-                result = String.format(TPS_FORMAT, GChatPlayer.get(player).getTPS());
+                float tps = GChatPlayer.get(player).getTPS();
+                result = tps < 0 ? UNKNOWN : String.format(TPS_FORMAT, tps);
                 break;
             case "ping":
                 result = GChatPlayer.get(player).getPingString();
@@ -0,0 +1,99 @@
+/*
+ * This file is part of gChat, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.gchat.placeholder;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Formats the current time and date per timezone, at most once per minute.
+ *
+ * <p>Everything in here is immutable or lock-free, so it can be used from the
+ * timer thread and the event threads at the same time.</p>
+ */
+public final class TimeFormatCache {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final long MINUTE_MILLIS = 60_000L;
+
+    private static final Map<ZoneId, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static final Map<String, ZoneId> ZONES = new ConcurrentHashMap<>();
+
+    private TimeFormatCache() {
+    }
+
+    /**
+     * Get the current time ("HH:mm") in the given zone
+     */
+    public static String getTime(ZoneId zone) {
+        return get(zone).time;
+    }
+
+    /**
+     * Get the current date ("yyyy-MM-dd") in the given zone
+     */
+    public static String getDate(ZoneId zone) {
+        return get(zone).date;
+    }
+
+    /**
+     * Get the zone for a timezone id.
+     * Unknown ids fall back to GMT, just like {@link TimeZone#getTimeZone(String)}
+     */
+    public static ZoneId getZone(String id) {
+
+        if (id == null) {
+            return ZoneId.systemDefault();
+        }
+
+        return ZONES.computeIfAbsent(id, key -> TimeZone.getTimeZone(key).toZoneId());
+    }
+
+    private static Entry get(ZoneId zone) {
+        long now = System.currentTimeMillis();
+        long minute = now / MINUTE_MILLIS;
+
+        Entry entry = ENTRIES.get(zone);
+
+        if (entry == null || entry.minute != minute) {
+            // two threads may both format a new minute, they'll produce the same strings
+            ZonedDateTime time = Instant.ofEpochMilli(minute * MINUTE_MILLIS).atZone(zone);
+            entry = new Entry(minute, TIME_FORMAT.format(time), DATE_FORMAT.format(time));
+            ENTRIES.put(zone, entry);
+        }
+
+        return entry;
+    }
+
+    private record Entry(long minute, String time, String date) {
+    }
+}
@@ -0,0 +1,301 @@
+package me.lucko.gchat.push;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import me.lucko.gchat.GChatPlugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams events to local subscribers as Server-Sent Events.
+ *
+ * <p>Subscribers connect to {@code /events} and keep the connection open.
+ * Every event is encoded once and handed to each subscriber's own bounded
+ * queue, which a thread of its own writes out. A subscriber that can't
+ * keep up and lets its queue fill is disconnected, so it never holds up
+ * the others or the threads publishing events.</p>
+ */
+public class EventFeed {
+
+    private static final byte[] DATA = "data: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final long HEARTBEAT_SECONDS = 15;
+
+    private final GChatPlugin plugin;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ThreadFactory subscriber_threads;
+    private final byte[] token;
+    private final Semaphore slots;
+    private final int buffer_size;
+
+    private final PushEncoder encoder = new PushEncoder();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder connected = new LongAdder();
+    private final LongAdder disconnected_slow = new LongAdder();
+
+    /**
+     * @param   token   The token subscribers must send, or null to allow anyone who can connect
+     */
+    public EventFeed(GChatPlugin plugin, String host, int port, String token, int max_subscribers, int buffer_size) throws IOException {
+        this.plugin = plugin;
+        this.token = token == null ? null : token.getBytes(StandardCharsets.UTF_8);
+        this.slots = new Semaphore(max_subscribers);
+        this.buffer_size = buffer_size;
+
+        AtomicInteger thread_counter = new AtomicInteger();
+
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "gChat Event Feed #" + thread_counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger subscriber_counter = new AtomicInteger();
+
+        this.subscriber_threads = runnable -> {
+            Thread thread = new Thread(runnable, "gChat Event Feed Subscriber #" + subscriber_counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler((t, throwable) -> plugin.getLogger().error("Event feed subscriber failed", throwable));
+            return thread;
+        };
+
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.server.createContext("/events", this::handle);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+
+        plugin.getLogger().info("Event feed listening on http://" + host + ":" + port + "/events");
+    }
+
+    /**
+     * Is anyone listening?
+     * Check this before creating an event only meant for the feed
+     */
+    public boolean hasSubscribers() {
+        return !this.subscribers.isEmpty();
+    }
+
+    /**
+     * Send an event to every subscriber
+     */
+    public void publish(PushEvent event) {
+
+        if (this.subscribers.isEmpty()) {
+            return;
+        }
+
+        byte[] bytes;
+
+        try {
+            synchronized (this.encoder) {
+                bytes = this.encoder.encode(event);
+            }
+        } catch (IOException | RuntimeException e) {
+            this.plugin.getLogger().error("Failed to encode a feed event", e);
+            return;
+        }
+
+        this.published.increment();
+
+        for (Subscriber subscriber : this.subscribers) {
+            if (!subscriber.closed && !subscriber.queue.offer(bytes)) {
+                this.disconnected_slow.increment();
+                this.plugin.getLogger().warn("Disconnected event feed subscriber " + subscriber.address + ", it fell " + this.buffer_size + " events behind");
+                subscriber.close();
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+
+        if (!exchange.getRequestMethod().equals("GET")) {
+            this.reject(exchange, 405);
+            return;
+        }
+
+        if (!this.isAuthorized(exchange)) {
+            this.reject(exchange, 401);
+            return;
+        }
+
+        // reserve the slot first, connections are handled at the same time
+        if (!this.slots.tryAcquire()) {
+            this.reject(exchange, 503);
+            return;
+        }
+
+        Subscriber subscriber = new Subscriber(exchange, new ArrayBlockingQueue<>(this.buffer_size), this.subscriber_threads);
+
+        try {
+            subscriber.thread.start();
+        } catch (RuntimeException | Error e) {
+            this.slots.release();
+            exchange.close();
+            throw e;
+        }
+    }
+
+    private void reject(HttpExchange exchange, int status) throws IOException {
+        try (exchange) {
+            exchange.sendResponseHeaders(status, -1);
+        }
+    }
+
+    /**
+     * Runs on the subscriber's own thread until it disconnects or is disconnected
+     */
+    private void serve(Subscriber subscriber) {
+
+        try (HttpExchange exchange = subscriber.exchange) {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+
+            this.subscribers.add(subscriber);
+            this.connected.increment();
+
+            this.stream(subscriber, exchange.getResponseBody());
+        } catch (IOException e) {
+            // the subscriber went away
+        } finally {
+            this.subscribers.remove(subscriber);
+            this.slots.release();
+        }
+    }
+
+    private boolean isAuthorized(HttpExchange exchange) {
+
+        if (this.token == null) {
+            return true;
+        }
+
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+
+        if (header == null || !header.startsWith("Bearer ")) {
+            return false;
+        }
+
+        return MessageDigest.isEqual(this.token, header.substring(7).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write events to the subscriber until it disconnects or is disconnected
+     */
+    private void stream(Subscriber subscriber, OutputStream out) throws IOException {
+        List<byte[]> pending = new ArrayList<>();
+
+        // let the subscriber know it is connected
+        out.write(HEARTBEAT);
+        out.flush();
+
+        while (!subscriber.closed) {
+            byte[] first;
+
+            try {
+                first = subscriber.queue.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // stay interrupted, so closing the connection can't block either
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (subscriber.closed) {
+                return;
+            }
+
+            // also finds out about subscribers that went away
+            if (first == null) {
+                out.write(HEARTBEAT);
+                out.flush();
+                continue;
+            }
+
+            pending.add(first);
+            subscriber.queue.drainTo(pending);
+
+            for (byte[] event : pending) {
+                out.write(DATA);
+                out.write(event);
+                out.write(END);
+            }
+
+            out.flush();
+            pending.clear();
+        }
+    }
+
+    /**
+     * Get human readable statistics
+     */
+    public List<String> getStats() {
+        List<String> result = new ArrayList<>();
+
+        result.add("Event feed: " + this.subscribers.size() + " subscribers, "
+                + this.published.sum() + " events published, "
+                + this.connected.sum() + " connections, "
+                + this.disconnected_slow.sum() + " disconnected for being too slow");
+
+        return result;
+    }
+
+    /**
+     * Disconnect everyone and stop listening
+     */
+    public void shutdown() {
+
+        for (Subscriber subscriber : this.subscribers) {
+            subscriber.close();
+        }
+
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private class Subscriber {
+        private final HttpExchange exchange;
+        private final BlockingQueue<byte[]> queue;
+        private final Thread thread;
+        private final String address;
+        private volatile boolean closed = false;
+
+        private Subscriber(HttpExchange exchange, BlockingQueue<byte[]> queue, ThreadFactory thread_factory) {
+            this.exchange = exchange;
+            this.queue = queue;
+            this.thread = thread_factory.newThread(() -> EventFeed.this.serve(this));
+            this.address = exchange.getRemoteAddress().toString();
+        }
+
+        /**
+         * Make the subscriber's thread disconnect it. Never blocks.
+         * The thread only ever serves this subscriber, and interrupting
+         * it also closes a connection stuck on a full socket, which
+         * closing the exchange from here would wait for
+         */
+        private void close() {
+            this.closed = true;
+            this.thread.interrupt();
+        }
+    }
+}
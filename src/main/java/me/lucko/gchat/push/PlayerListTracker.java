@@ -0,0 +1,195 @@
+package me.lucko.gchat.push;
+
+import com.velocitypowered.api.proxy.Player;
+import me.lucko.gchat.GChatPlugin;
+import me.lucko.gchat.config.GChatConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimerTask;
+import java.util.UUID;
+
+/**
+ * Pushes the list of online players.
+ *
+ * <p>The full list is sent once, and again when requested. After that only
+ * the changes since the previous version are sent, every few seconds: who
+ * joined, who left, who moved to another server and whose ping changed
+ * noticeably. Whenever the dispatcher had to drop one of these events, the
+ * endpoint may have missed a change, so the full list is sent again. If that
+ * keeps happening, the full list is sent less and less often.</p>
+ */
+public class PlayerListTracker extends TimerTask {
+
+    private static final int MAX_SNAPSHOT_BACKOFF = 300;
+
+    private final GChatPlugin plugin;
+    private final PushDispatcher dispatcher;
+
+    // the players as the endpoint knows them, or null if it needs the full list
+    private Map<UUID, PushEvent.PlayerInfo> sent = null;
+    private long version = 0;
+    private long last_lost = 0;
+    private int seconds = 0;
+
+    // how many seconds to wait before sending the full list again after a loss
+    private int snapshot_backoff = 1;
+
+    private long snapshots = 0;
+    private long deltas = 0;
+
+    public PlayerListTracker(GChatPlugin plugin, PushDispatcher dispatcher) {
+        this.plugin = plugin;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Called every second
+     */
+    @Override
+    public void run() {
+        try {
+            this.tick();
+        } catch (Exception e) {
+            this.plugin.getLogger().error("Failed to push the player list", e);
+        }
+    }
+
+    private synchronized void tick() {
+
+        if (!GChatPlugin.shouldPushEvents()) {
+            // send everything again once pushing is enabled
+            this.sent = null;
+            this.snapshot_backoff = 1;
+            return;
+        }
+
+        if (this.sent == null) {
+            this.sendSnapshot();
+            return;
+        }
+
+        this.seconds++;
+
+        if (this.dispatcher.getPlayerListLosses() != this.last_lost) {
+            // the full list may be getting lost itself, so wait longer every time
+            if (this.seconds >= this.snapshot_backoff) {
+                this.sendSnapshot();
+                this.snapshot_backoff = Math.min(this.snapshot_backoff * 2, MAX_SNAPSHOT_BACKOFF);
+            }
+
+            return;
+        }
+
+        if (this.seconds < this.plugin.getConfig().getPushDeltaInterval()) {
+            return;
+        }
+
+        // nothing was lost for a while
+        this.seconds = 0;
+        this.snapshot_backoff = 1;
+        this.sendDelta();
+    }
+
+    /**
+     * Send the full list of online players now
+     */
+    public synchronized void sendSnapshot() {
+
+        if (!GChatPlugin.shouldPushEvents()) {
+            return;
+        }
+
+        Map<UUID, PushEvent.PlayerInfo> current = this.getCurrent();
+
+        // read before pushing, so the snapshot is sent again if it gets dropped itself
+        this.last_lost = this.dispatcher.getPlayerListLosses();
+
+        this.version++;
+        this.dispatcher.push(new PushEvent.PlayerListEvent(this.version, new ArrayList<>(current.values())));
+
+        this.sent = current;
+        this.seconds = 0;
+        this.snapshots++;
+    }
+
+    private void sendDelta() {
+        GChatConfig config = this.plugin.getConfig();
+        int ping_bucket = config.getPushPingBucket();
+
+        Map<UUID, PushEvent.PlayerInfo> current = this.getCurrent();
+
+        List<PushEvent.PlayerInfo> added = new ArrayList<>();
+        List<UUID> removed = new ArrayList<>();
+        List<PushEvent.PlayerInfo> moved = new ArrayList<>();
+        List<PushEvent.PlayerInfo> ping = new ArrayList<>();
+
+        for (PushEvent.PlayerInfo player : current.values()) {
+            PushEvent.PlayerInfo previous = this.sent.get(player.uuid());
+
+            if (previous == null) {
+                added.add(player);
+                this.sent.put(player.uuid(), player);
+                continue;
+            }
+
+            boolean changed = false;
+
+            if (!Objects.equals(previous.server(), player.server())) {
+                moved.add(player);
+                changed = true;
+            }
+
+            if (previous.ping() / ping_bucket != player.ping() / ping_bucket) {
+                ping.add(player);
+                changed = true;
+            }
+
+            if (changed) {
+                this.sent.put(player.uuid(), player);
+            }
+        }
+
+        for (UUID uuid : this.sent.keySet()) {
+            if (!current.containsKey(uuid)) {
+                removed.add(uuid);
+            }
+        }
+
+        for (UUID uuid : removed) {
+            this.sent.remove(uuid);
+        }
+
+        if (added.isEmpty() && removed.isEmpty() && moved.isEmpty() && ping.isEmpty()) {
+            return;
+        }
+
+        this.version++;
+        this.dispatcher.push(new PushEvent.PlayerListDeltaEvent(this.version - 1, this.version, added, removed, moved, ping));
+        this.deltas++;
+    }
+
+    private Map<UUID, PushEvent.PlayerInfo> getCurrent() {
+        Map<UUID, PushEvent.PlayerInfo> result = new HashMap<>();
+
+        for (Player player : this.plugin.getProxy().getAllPlayers()) {
+            result.put(player.getUniqueId(), PushEvent.PlayerInfo.of(player));
+        }
+
+        return result;
+    }
+
+    /**
+     * Get human readable statistics
+     */
+    public synchronized List<String> getStats() {
+        List<String> result = new ArrayList<>();
+
+        result.add(" - player list: version " + this.version + ", " + this.snapshots + " snapshots, " + this.deltas + " deltas");
+
+        return result;
+    }
+}
@@ -0,0 +1,465 @@
+package me.lucko.gchat.push;
+
+import me.lucko.gchat.GChatPlugin;
+import me.lucko.gchat.config.GChatConfig;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends pushed events to the configured endpoint in the background.
+ *
+ * <p>Events wait in a bounded queue and are sent by a single thread over one
+ * shared HTTP client. With a batch size above 1, the events collected during
+ * the flush interval are sent as one JSON array. Failed requests are retried
+ * with an increasing delay. When the endpoint can't keep up and the queue is
+ * full, new events are dropped and counted instead of piling up.</p>
+ *
+ * <p>With a {@link PushSpool}, a batch that can't be sent is written to disk
+ * right away instead of being retried here, so the queue keeps moving. From
+ * then on all new events go to the spool too, and it is drained in order
+ * once the endpoint is reachable again. While pushing is disabled, the spool
+ * is kept as it is.</p>
+ */
+public class PushDispatcher {
+
+    private static final long RETRY_DELAY_MILLIS = 500;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private final GChatPlugin plugin;
+    private final PushEncoder encoder = new PushEncoder();
+    private final BlockingQueue<PushEvent> queue;
+    private final HttpClient client;
+    private final PushSpool spool;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // are events going through the spool until it is empty again?
+    private volatile boolean spooling = false;
+    private long retry_delay = RETRY_DELAY_MILLIS;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder sent_events = new LongAdder();
+    private final LongAdder sent_batches = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder dropped_full = new LongAdder();
+    private final LongAdder dropped_failed = new LongAdder();
+    private final LongAdder spooled = new LongAdder();
+    private final LongAdder player_list_lost = new LongAdder();
+
+    /**
+     * @param   spool   Where to keep events while the endpoint is down, or null to drop them
+     */
+    public PushDispatcher(GChatPlugin plugin, int queue_size, PushSpool spool) {
+        this.plugin = plugin;
+        this.queue = new ArrayBlockingQueue<>(queue_size);
+        this.spool = spool;
+
+        // events left over from the previous run go first
+        this.spooling = spool != null && !spool.isEmpty();
+
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        this.thread = new Thread(this::run, "gChat Push Dispatcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue an event to be pushed
+     *
+     * @return   False if the queue is full and the event was dropped
+     */
+    public boolean push(PushEvent event) {
+        if (this.queue.offer(event)) {
+            this.queued.increment();
+            return true;
+        }
+
+        this.dropped_full.increment();
+        this.lost(event);
+        return false;
+    }
+
+    /**
+     * Remember that the endpoint may have missed a change to the player list
+     */
+    private void lost(PushEvent event) {
+        if (event instanceof PushEvent.PlayerListEvent || event instanceof PushEvent.PlayerListDeltaEvent) {
+            this.player_list_lost.increment();
+        }
+    }
+
+    private void lost(List<PushEvent> events) {
+        for (PushEvent event : events) {
+            this.lost(event);
+        }
+    }
+
+    private void run() {
+        List<PushEvent> batch = new ArrayList<>();
+
+        while (this.running) {
+            try {
+                if (this.spooling) {
+                    this.sendSpooled();
+                    continue;
+                }
+
+                PushEvent first = this.queue.poll(1, TimeUnit.SECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                this.collect(batch);
+
+                if (!this.send(batch)) {
+                    this.spool(batch);
+                }
+
+                this.retry_delay = RETRY_DELAY_MILLIS;
+            } catch (InterruptedException e) {
+                // keep the events that were being sent
+                this.spool(batch);
+                break;
+            } catch (Exception e) {
+                this.plugin.getLogger().error("Failed to push events", e);
+
+                // don't spin on an error that keeps happening
+                try {
+                    Thread.sleep(this.retry_delay);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+
+                this.retry_delay = Math.min(this.retry_delay * 2, MAX_RETRY_DELAY_MILLIS);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Send the next batch from the spool, waiting a while if the endpoint is still down
+     */
+    private void sendSpooled() throws IOException, InterruptedException {
+        this.moveQueueToSpool();
+
+        GChatConfig config = this.plugin.getConfig();
+
+        // pushing was disabled, keep the backlog for when it is enabled again
+        if (config.getPushEndpoint() == null) {
+            this.waitSpooling(1000);
+            return;
+        }
+
+        List<byte[]> batch = this.spool.read(config.getPushBatchSize());
+
+        if (batch.isEmpty()) {
+            this.spooling = false;
+            this.retry_delay = RETRY_DELAY_MILLIS;
+            this.plugin.getLogger().info("All spooled push events have been sent");
+            return;
+        }
+
+        PushEncoder.Buffer body = this.encoder.joinBody(batch, config.getPushBatchSize() > 1);
+        Result result = this.attempt(batch.size(), body);
+
+        if (result == Result.REJECTED) {
+            // what these events were isn't known anymore, so assume the worst
+            this.player_list_lost.increment();
+        }
+
+        if (result == Result.DISABLED) {
+            this.waitSpooling(1000);
+            return;
+        }
+
+        if (result == Result.FAILED) {
+            this.retries.increment();
+            this.waitSpooling(this.retry_delay);
+            this.retry_delay = Math.min(this.retry_delay * 2, MAX_RETRY_DELAY_MILLIS);
+            return;
+        }
+
+        this.retry_delay = RETRY_DELAY_MILLIS;
+        this.spool.commit();
+    }
+
+    /**
+     * Wait before retrying, meanwhile keep moving new events to the spool
+     */
+    private void waitSpooling(long millis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+
+        while (this.running) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0) {
+                return;
+            }
+
+            Thread.sleep(Math.min(remaining, 1000));
+            this.moveQueueToSpool();
+        }
+    }
+
+    private void moveQueueToSpool() throws IOException {
+        List<PushEvent> events = new ArrayList<>();
+        this.queue.drainTo(events);
+
+        if (!events.isEmpty()) {
+            this.spool.append(this.encodeEach(events));
+            this.spooled.add(events.size());
+        }
+    }
+
+    private List<byte[]> encodeEach(List<PushEvent> events) throws IOException {
+        List<byte[]> result = new ArrayList<>(events.size());
+
+        for (PushEvent event : events) {
+            result.add(this.encoder.encode(event));
+        }
+
+        return result;
+    }
+
+    /**
+     * Keep events that couldn't be sent in the spool, or drop them if there is none
+     */
+    private void spool(List<PushEvent> batch) {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (this.spool == null) {
+            this.dropped_failed.add(batch.size());
+            this.lost(batch);
+            this.plugin.getLogger().warn("Dropped " + batch.size() + " events, the push endpoint is unavailable");
+            return;
+        }
+
+        try {
+            this.spool.append(this.encodeEach(batch));
+            this.spooled.add(batch.size());
+
+            if (!this.spooling) {
+                this.spooling = true;
+                this.plugin.getLogger().warn("The push endpoint is unavailable, events are spooled to disk until it is back");
+            }
+        } catch (IOException e) {
+            this.dropped_failed.add(batch.size());
+            this.lost(batch);
+            this.plugin.getLogger().error("Failed to spool " + batch.size() + " push events", e);
+        }
+    }
+
+    /**
+     * Add more events to the batch, until it is full or the flush interval passed
+     */
+    private void collect(List<PushEvent> batch) throws InterruptedException {
+        GChatConfig config = this.plugin.getConfig();
+        int batch_size = config.getPushBatchSize();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getPushFlushInterval());
+
+        while (batch.size() < batch_size) {
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                this.queue.drainTo(batch, batch_size - batch.size());
+                return;
+            }
+
+            PushEvent next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+
+            if (next == null) {
+                return;
+            }
+
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Send a batch, retrying it when the endpoint is unavailable and there is no spool
+     *
+     * @return   False if the endpoint stayed unavailable
+     */
+    private boolean send(List<PushEvent> batch) throws InterruptedException {
+        GChatConfig config = this.plugin.getConfig();
+        PushEncoder.Buffer body;
+
+        try {
+            body = this.encoder.encodeBody(batch, config.getPushBatchSize() > 1);
+        } catch (IOException | RuntimeException e) {
+            this.dropped_failed.add(batch.size());
+            this.lost(batch);
+            this.plugin.getLogger().error("Failed to encode pushed events", e);
+            return true;
+        }
+
+        int max_retries = config.getPushMaxRetries();
+        long delay = RETRY_DELAY_MILLIS;
+
+        for (int attempt = 0; ; attempt++) {
+            Result result = this.attempt(batch.size(), body);
+
+            if (result == Result.REJECTED) {
+                this.lost(batch);
+            }
+
+            if (result != Result.FAILED) {
+                return true;
+            }
+
+            // the spool retries it, without holding up the queue
+            if (this.spool != null || attempt >= max_retries || !this.running) {
+                return false;
+            }
+
+            this.retries.increment();
+            Thread.sleep(delay);
+            delay = Math.min(delay * 2, MAX_RETRY_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Try to send an encoded batch once
+     *
+     * @param   count   The number of events in the batch
+     */
+    private Result attempt(int count, PushEncoder.Buffer body) throws InterruptedException {
+        GChatConfig config = this.plugin.getConfig();
+        URI uri = config.getPushEndpoint();
+
+        if (uri == null) {
+            // pushing got disabled in the meantime
+            return Result.DISABLED;
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json");
+
+        if (config.isPushGzip()) {
+            try {
+                body = this.encoder.compress(body);
+            } catch (IOException e) {
+                this.dropped_failed.add(count);
+                this.plugin.getLogger().error("Failed to compress pushed events", e);
+                return Result.REJECTED;
+            }
+
+            builder.header("Content-Encoding", "gzip");
+        }
+
+        // the body is sent before the buffer is used again
+        builder.POST(HttpRequest.BodyPublishers.ofByteArray(body.getArray(), 0, body.getLength()));
+
+        try {
+            HttpResponse<Void> response = this.client.send(builder.build(), HttpResponse.BodyHandlers.discarding());
+            int status = response.statusCode();
+
+            if (status < 300) {
+                this.sent_events.add(count);
+                this.sent_batches.increment();
+                return Result.SENT;
+            }
+
+            // the endpoint rejected these events, sending them again won't help
+            if (status < 500 && status != 429) {
+                this.dropped_failed.add(count);
+                this.plugin.getLogger().warn("Push endpoint rejected " + count + " events with status " + status);
+                return Result.REJECTED;
+            }
+        } catch (IOException e) {
+            // try again later
+        }
+
+        return Result.FAILED;
+    }
+
+    /**
+     * Get a number that changes whenever player list events may have been dropped.
+     * Spooled events can't be told apart, so dropping any of those counts too
+     */
+    public long getPlayerListLosses() {
+        long result = this.player_list_lost.sum();
+
+        if (this.spool != null) {
+            result += this.spool.getDroppedSegments();
+        }
+
+        return result;
+    }
+
+    /**
+     * Get human readable statistics
+     */
+    public List<String> getStats() {
+        List<String> result = new ArrayList<>();
+
+        result.add("Push events: " + this.queued.sum() + " queued, "
+                + this.queue.size() + " waiting, "
+                + this.sent_events.sum() + " sent in " + this.sent_batches.sum() + " requests, "
+                + this.retries.sum() + " retries");
+
+        result.add(" - dropped: " + this.dropped_full.sum() + " (queue full), " + this.dropped_failed.sum() + " (failed)");
+
+        if (this.spool != null) {
+            result.add(" - spooled: " + this.spooled.sum() + (this.spooling ? " (endpoint unavailable)" : ""));
+            result.addAll(this.spool.getStats());
+        }
+
+        return result;
+    }
+
+    /**
+     * Stop sending events
+     */
+    public void shutdown() {
+        this.running = false;
+        this.thread.interrupt();
+
+        try {
+            this.thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // the encoder can only be used once the dispatcher thread stopped
+        if (this.spool == null || this.thread.isAlive()) {
+            return;
+        }
+
+        // keep whatever wasn't sent for the next start
+        try {
+            this.moveQueueToSpool();
+            this.spool.close();
+        } catch (IOException e) {
+            this.plugin.getLogger().error("Failed to spool push events", e);
+        }
+    }
+
+    private enum Result {
+        SENT,
+        REJECTED,
+        DISABLED,
+        FAILED
+    }
+}
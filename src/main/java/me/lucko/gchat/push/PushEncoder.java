@@ -0,0 +1,244 @@
+package me.lucko.gchat.push;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes push events as JSON into a single reusable buffer.
+ *
+ * <p>Events are streamed through a {@link JsonWriter}, so no intermediate
+ * trees or strings are created. Every event gets a new, strict writer, so
+ * it is always valid JSON on its own. The buffer only grows, so once it is
+ * big enough for the largest request, the writer is all encoding allocates.
+ * Not thread-safe: it belongs to the dispatcher thread.</p>
+ */
+public class PushEncoder {
+
+    private final Buffer buffer = new Buffer();
+    private final Buffer compressed = new Buffer();
+
+    private JsonWriter createWriter() {
+        JsonWriter result = new JsonWriter(new Utf8Writer(this.buffer));
+
+        // not lenient, it would write NaN and Infinity as they are
+        result.setHtmlSafe(true);
+        result.setSerializeNulls(false);
+
+        return result;
+    }
+
+    /**
+     * Encode a single event, for keeping it in the spool
+     */
+    public byte[] encode(PushEvent event) throws IOException {
+        this.buffer.reset();
+        this.writeEvent(event);
+
+        return this.buffer.toByteArray();
+    }
+
+    /**
+     * Encode a request body with the given events.
+     * The result is only valid until this encoder is used again
+     *
+     * @param   array   Send the events as a JSON array, even if there is just one
+     */
+    public Buffer encodeBody(List<PushEvent> events, boolean array) throws IOException {
+        this.buffer.reset();
+
+        if (!array && events.size() == 1) {
+            this.writeEvent(events.get(0));
+            return this.buffer;
+        }
+
+        this.buffer.write('[');
+
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                this.buffer.write(',');
+            }
+
+            this.writeEvent(events.get(i));
+        }
+
+        this.buffer.write(']');
+
+        return this.buffer;
+    }
+
+    /**
+     * Join events that were encoded before into a request body.
+     * The result is only valid until this encoder is used again
+     *
+     * @param   array   Send the events as a JSON array, even if there is just one
+     */
+    public Buffer joinBody(List<byte[]> events, boolean array) {
+        this.buffer.reset();
+
+        if (!array && events.size() == 1) {
+            this.buffer.writeBytes(events.get(0));
+            return this.buffer;
+        }
+
+        this.buffer.write('[');
+
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                this.buffer.write(',');
+            }
+
+            this.buffer.writeBytes(events.get(i));
+        }
+
+        this.buffer.write(']');
+
+        return this.buffer;
+    }
+
+    /**
+     * Compress an encoded body with gzip.
+     * The result is only valid until this encoder is used again
+     */
+    public Buffer compress(Buffer body) throws IOException {
+        this.compressed.reset();
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(this.compressed)) {
+            gzip.write(body.getArray(), 0, body.getLength());
+        }
+
+        return this.compressed;
+    }
+
+    private void writeEvent(PushEvent event) throws IOException {
+        // a strict writer only takes a single top-level object
+        event.write(this.createWriter());
+    }
+
+    /**
+     * Writes characters straight into a buffer as UTF-8.
+     * Unlike an OutputStreamWriter, it doesn't copy every string it is given
+     */
+    private static class Utf8Writer extends Writer {
+
+        private final Buffer out;
+
+        // the first half of a surrogate pair, waiting for the second
+        private char high = 0;
+
+        private Utf8Writer(Buffer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int c) {
+            this.writeChar((char) c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            this.out.ensureCapacity(length * 3);
+
+            for (int i = offset; i < offset + length; i++) {
+                this.writeChar(chars[i]);
+            }
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+            this.out.ensureCapacity(length * 3);
+
+            for (int i = offset; i < offset + length; i++) {
+                this.writeChar(string.charAt(i));
+            }
+        }
+
+        private void writeChar(char c) {
+            Buffer out = this.out;
+
+            if (this.high != 0) {
+                char high = this.high;
+                this.high = 0;
+
+                if (Character.isLowSurrogate(c)) {
+                    int code_point = Character.toCodePoint(high, c);
+                    out.ensureCapacity(4);
+                    out.put(0xF0 | (code_point >> 18));
+                    out.put(0x80 | ((code_point >> 12) & 0x3F));
+                    out.put(0x80 | ((code_point >> 6) & 0x3F));
+                    out.put(0x80 | (code_point & 0x3F));
+                    return;
+                }
+
+                out.ensureCapacity(1);
+                out.put('?');
+            }
+
+            // a single char never needs more than 3 bytes
+            out.ensureCapacity(3);
+
+            if (c < 0x80) {
+                out.put(c);
+            } else if (c < 0x800) {
+                out.put(0xC0 | (c >> 6));
+                out.put(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                this.high = c;
+            } else if (Character.isLowSurrogate(c)) {
+                out.put('?');
+            } else {
+                out.put(0xE0 | (c >> 12));
+                out.put(0x80 | ((c >> 6) & 0x3F));
+                out.put(0x80 | (c & 0x3F));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A byte buffer whose contents can be used without copying them
+     */
+    public static class Buffer extends ByteArrayOutputStream {
+
+        private Buffer() {
+            super(4096);
+        }
+
+        public byte[] getArray() {
+            return this.buf;
+        }
+
+        public int getLength() {
+            return this.count;
+        }
+
+        /**
+         * Make room for at least the given amount of bytes
+         */
+        private void ensureCapacity(int length) {
+            if (this.count + length > this.buf.length) {
+                this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.count + length));
+            }
+        }
+
+        /**
+         * Add a byte without the locking of {@link #write(int)}.
+         * There must be room for it
+         */
+        private void put(int b) {
+            this.buf[this.count++] = (byte) b;
+        }
+    }
+}
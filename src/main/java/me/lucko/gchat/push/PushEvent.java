@@ -0,0 +1,265 @@
+package me.lucko.gchat.push;
+
+import com.google.gson.stream.JsonWriter;
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ServerConnection;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An event that can be pushed to the remote endpoint.
+ *
+ * <p>Events are small immutable records, holding only what is written out.
+ * They are encoded by the dispatcher when they are sent, straight into its
+ * request buffer.</p>
+ */
+public interface PushEvent {
+
+    /**
+     * Write this event as a single JSON object
+     */
+    void write(JsonWriter out) throws IOException;
+
+    /**
+     * The player an event is about, as it was when the event happened
+     */
+    record PlayerInfo(UUID uuid, String username, long ping, String server) {
+
+        public static PlayerInfo of(Player player) {
+            ServerConnection connection = player.getCurrentServer().orElse(null);
+            String server = connection == null ? null : connection.getServer().getServerInfo().getName();
+
+            return new PlayerInfo(player.getUniqueId(), player.getUsername(), player.getPing(), server);
+        }
+
+        public void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("uuid").value(this.uuid.toString());
+            out.name("username").value(this.username);
+            out.name("ping").value(this.ping);
+            out.name("server").value(this.server);
+            out.endObject();
+        }
+    }
+
+    /**
+     * A player logged in, joined a server or logged out
+     */
+    record PlayerEvent(String type, PlayerInfo player) implements PushEvent {
+
+        public PlayerEvent(String type, Player player) {
+            this(type, PlayerInfo.of(player));
+        }
+
+        @Override
+        public void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("type").value(this.type);
+            out.name("player");
+            this.player.write(out);
+            out.endObject();
+        }
+    }
+
+    /**
+     * A player changed their pronouns
+     */
+    record PronounsEvent(PlayerInfo player, String pronouns) implements PushEvent {
+
+        public PronounsEvent(Player player, String pronouns) {
+            this(PlayerInfo.of(player), pronouns);
+        }
+
+        @Override
+        public void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("type").value("pronouns");
+            out.name("player");
+            this.player.write(out);
+            out.name("pronouns").value(this.pronouns);
+            out.endObject();
+        }
+    }
+
+    /**
+     * A player changed their nickname
+     */
+    record NicknameEvent(PlayerInfo player, String nickname, String color) implements PushEvent {
+
+        public NicknameEvent(Player player, String nickname, String color) {
+            this(PlayerInfo.of(player), nickname, color);
+        }
+
+        @Override
+        public void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("type").value("nickname");
+            out.name("player");
+            this.player.write(out);
+            out.name("nickname").value(this.nickname);
+            out.name("color").value(this.color);
+            out.endObject();
+        }
+    }
+
+    /**
+     * A player changed their timezone
+     */
+    record TimezoneEvent(PlayerInfo player, String timezone) implements PushEvent {
+
+        public TimezoneEvent(Player player, String timezone) {
+            this(PlayerInfo.of(player), timezone);
+        }
+
+        @Override
+        public void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("type").value("timezone");
+            out.name("player");
+            this.player.write(out);
+            out.name("timezone").value(this.timezone);
+            out.endObject();
+        }
+    }
+
+    /**
+     * A player sent a chat message
+     */
+    record ChatEvent(PlayerInfo player, String message, String formatted, int recipients) implements PushEvent {
+
+        @Override
+        public void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("type").value("chat");
+            out.name("player");
+            this.player.write(out);
+            out.name("message").value(this.message);
+            out.name("formatted").value(this.formatted);
+            out.name("recipients").value(this.recipients);
+            out.endObject();
+        }
+    }
+
+    /**
+     * A backend server reported its performance
+     */
+    record MetricsEvent(String server, float mspt, float tps, int load) implements PushEvent {
+
+        @Override
+        public void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("type").value("metrics");
+            out.name("server").value(this.server);
+            writeFinite(out.name("mspt"), this.mspt);
+            writeFinite(out.name("tps"), this.tps);
+            out.name("load").value(this.load);
+            out.endObject();
+        }
+
+        /**
+         * Backend servers could report NaN or Infinity, which JSON can't
+         * represent. Leave the value out instead
+         */
+        private static void writeFinite(JsonWriter out, float value) throws IOException {
+            if (Float.isFinite(value)) {
+                out.value((Number) value);
+            } else {
+                out.nullValue();
+            }
+        }
+    }
+
+    /**
+     * All the players that are online.
+     * Deltas sent afterwards build on its version
+     */
+    record PlayerListEvent(long version, List<PlayerInfo> players) implements PushEvent {
+
+        @Override
+        public void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("type").value("players");
+            out.name("version").value(this.version);
+            out.name("players");
+            out.beginArray();
+
+            for (PlayerInfo player : this.players) {
+                player.write(out);
+            }
+
+            out.endArray();
+            out.endObject();
+        }
+    }
+
+    /**
+     * The changes to the online players since the given base version.
+     * Moved players only have their uuid and server written, players whose
+     * ping changed only their uuid and ping
+     */
+    record PlayerListDeltaEvent(long base, long version, List<PlayerInfo> added, List<UUID> removed,
+                                List<PlayerInfo> moved, List<PlayerInfo> ping) implements PushEvent {
+
+        @Override
+        public void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("type").value("players_delta");
+            out.name("base").value(this.base);
+            out.name("version").value(this.version);
+
+            if (!this.added.isEmpty()) {
+                out.name("added");
+                out.beginArray();
+
+                for (PlayerInfo player : this.added) {
+                    player.write(out);
+                }
+
+                out.endArray();
+            }
+
+            if (!this.removed.isEmpty()) {
+                out.name("removed");
+                out.beginArray();
+
+                for (UUID uuid : this.removed) {
+                    out.value(uuid.toString());
+                }
+
+                out.endArray();
+            }
+
+            if (!this.moved.isEmpty()) {
+                out.name("moved");
+                out.beginArray();
+
+                for (PlayerInfo player : this.moved) {
+                    out.beginObject();
+                    out.name("uuid").value(player.uuid().toString());
+                    out.name("server").value(player.server());
+                    out.endObject();
+                }
+
+                out.endArray();
+            }
+
+            if (!this.ping.isEmpty()) {
+                out.name("ping");
+                out.beginArray();
+
+                for (PlayerInfo player : this.ping) {
+                    out.beginObject();
+                    out.name("uuid").value(player.uuid().toString());
+                    out.name("ping").value(player.ping());
+                    out.endObject();
+                }
+
+                out.endArray();
+            }
+
+            out.endObject();
+        }
+    }
+}
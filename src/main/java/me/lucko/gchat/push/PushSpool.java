@@ -0,0 +1,440 @@
+package me.lucko.gchat.push;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps pushed events on disk while the endpoint is unavailable.
+ *
+ * <p>Events are appended to numbered segment files, and a cursor file
+ * remembers up to where they were sent. Segments are deleted once all of
+ * their events are sent, and the oldest ones are dropped when the spool
+ * grows past its size limit. A segment that can't be read is renamed to
+ * {@code .bad} and skipped. Only the batch being sent is ever read into
+ * memory.</p>
+ */
+public class PushSpool {
+
+    private static final int MAGIC = 0x67436853;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String BAD_SUFFIX = ".bad";
+    private static final String CURSOR_FILE = "cursor";
+
+    private final Path directory;
+    private final long max_bytes;
+    private final long segment_bytes;
+
+    // segment number to its size in bytes, oldest first
+    private final TreeMap<Long, Long> segments = new TreeMap<>();
+    private long total_bytes = 0;
+
+    private DataOutputStream output = null;
+    private long write_segment = 0;
+
+    private long read_segment;
+    private long read_offset;
+
+    // the position after the batch that was read last, not yet sent
+    private long pending_segment;
+    private long pending_offset;
+
+    private long dropped_bytes = 0;
+    private long dropped_segments = 0;
+
+    public PushSpool(Path directory, long max_bytes) throws IOException {
+        this.directory = directory;
+        this.max_bytes = max_bytes;
+        this.segment_bytes = Math.max(64 * 1024, max_bytes / 16);
+
+        Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+
+                try {
+                    long number = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    this.segments.put(number, Files.size(file));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+
+        this.readCursor();
+
+        // segments before the cursor were sent, but not deleted yet
+        while (!this.segments.isEmpty() && this.segments.firstKey() < this.read_segment) {
+            this.deleteSegment(this.segments.firstKey());
+        }
+
+        if (!this.segments.isEmpty()) {
+            this.repairLastSegment();
+        }
+
+        if (this.segments.isEmpty()) {
+            this.read_segment = 1;
+            this.read_offset = HEADER_SIZE;
+        } else if (this.segments.firstKey() > this.read_segment) {
+            this.read_segment = this.segments.firstKey();
+            this.read_offset = HEADER_SIZE;
+        } else {
+            this.read_offset = Math.min(this.read_offset, this.segments.get(this.read_segment));
+        }
+
+        this.total_bytes = 0;
+
+        for (long size : this.segments.values()) {
+            this.total_bytes += size;
+        }
+
+        this.pending_segment = this.read_segment;
+        this.pending_offset = this.read_offset;
+    }
+
+    private void readCursor() throws IOException {
+        Path file = this.directory.resolve(CURSOR_FILE);
+
+        if (!Files.exists(file)) {
+            this.read_segment = 0;
+            this.read_offset = HEADER_SIZE;
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            this.read_segment = in.readLong();
+            this.read_offset = in.readLong();
+        } catch (EOFException e) {
+            // the cursor is written to a temporary file first, so this shouldn't happen
+            this.read_segment = 0;
+            this.read_offset = HEADER_SIZE;
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        Path file = this.directory.resolve(CURSOR_FILE);
+        Path temp = this.directory.resolve(CURSOR_FILE + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeLong(this.read_segment);
+            out.writeLong(this.read_offset);
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Cut off an incomplete record at the end of the newest segment,
+     * left behind when the proxy stopped while it was being written
+     */
+    private void repairLastSegment() throws IOException {
+        long number = this.segments.lastKey();
+        Path file = this.getSegmentFile(number);
+        long size = this.segments.get(number);
+        long valid = HEADER_SIZE;
+
+        if (size < HEADER_SIZE) {
+            // not even the header was written
+            this.deleteSegment(number);
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a gChat push spool segment: " + file);
+            }
+
+            while (valid < size) {
+                int length = in.readInt();
+
+                if (length < 0 || valid + 4 + length > size) {
+                    break;
+                }
+
+                in.skipNBytes(length);
+                valid += 4 + length;
+            }
+        } catch (EOFException e) {
+            // valid is where the incomplete record starts
+        }
+
+        if (valid < size) {
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(valid);
+            }
+
+            this.segments.put(number, valid);
+        }
+    }
+
+    private Path getSegmentFile(long number) {
+        return this.directory.resolve(String.format("%016d", number) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Are there no events waiting to be sent?
+     */
+    public synchronized boolean isEmpty() {
+        return this.getBacklogBytes() == 0;
+    }
+
+    /**
+     * Get the amount of bytes of events that weren't sent yet
+     */
+    private long getBacklogBytes() {
+        long result = 0;
+
+        for (Map.Entry<Long, Long> entry : this.segments.tailMap(this.read_segment, true).entrySet()) {
+            result += entry.getValue();
+
+            if (entry.getKey() == this.read_segment) {
+                result -= this.read_offset;
+            } else {
+                result -= HEADER_SIZE;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Add events to the end of the spool
+     */
+    public synchronized void append(List<byte[]> events) throws IOException {
+
+        for (byte[] bytes : events) {
+            if (this.output == null || this.segments.get(this.write_segment) >= this.segment_bytes) {
+                this.startSegment();
+            }
+
+            this.output.writeInt(bytes.length);
+            this.output.write(bytes);
+
+            this.segments.merge(this.write_segment, 4L + bytes.length, Long::sum);
+            this.total_bytes += 4 + bytes.length;
+        }
+
+        this.output.flush();
+
+        this.enforceLimit();
+    }
+
+    private void startSegment() throws IOException {
+
+        if (this.output != null) {
+            this.output.close();
+        }
+
+        long number = this.segments.isEmpty() ? this.read_segment : this.segments.lastKey() + 1;
+        Path file = this.getSegmentFile(number);
+
+        this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE_NEW)));
+        this.output.writeInt(MAGIC);
+        this.output.writeInt(VERSION);
+        this.segments.put(number, (long) HEADER_SIZE);
+        this.total_bytes += HEADER_SIZE;
+
+        this.write_segment = number;
+    }
+
+    /**
+     * Drop the oldest segments while the spool is too big
+     */
+    private void enforceLimit() throws IOException {
+
+        while (this.total_bytes > this.max_bytes && this.segments.size() > 1) {
+            long oldest = this.segments.firstKey();
+
+            if (oldest == this.read_segment) {
+                this.dropped_bytes += this.segments.get(oldest) - this.read_offset;
+                this.dropped_segments++;
+                this.read_segment = this.segments.higherKey(oldest);
+                this.read_offset = HEADER_SIZE;
+                this.pending_segment = this.read_segment;
+                this.pending_offset = this.read_offset;
+                this.writeCursor();
+            }
+
+            this.deleteSegment(oldest);
+        }
+    }
+
+    private void deleteSegment(long number) throws IOException {
+        Long size = this.segments.remove(number);
+
+        if (size != null) {
+            this.total_bytes -= size;
+        }
+
+        Files.deleteIfExists(this.getSegmentFile(number));
+    }
+
+    /**
+     * Read the next events, starting at the cursor.
+     * They stay in the spool until {@link #commit()} is called
+     */
+    public synchronized List<byte[]> read(int max) throws IOException {
+        List<byte[]> result = new ArrayList<>();
+
+        long segment = this.read_segment;
+        long offset = this.read_offset;
+
+        while (result.size() < max && this.segments.containsKey(segment)) {
+            long size = this.segments.get(segment);
+
+            if (offset >= size) {
+                Long next = this.segments.higherKey(segment);
+
+                if (next == null) {
+                    break;
+                }
+
+                segment = next;
+                offset = HEADER_SIZE;
+                continue;
+            }
+
+            int segment_start = result.size();
+
+            try (InputStream stream = Files.newInputStream(this.getSegmentFile(segment))) {
+                stream.skipNBytes(offset);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+                while (result.size() < max && offset < size) {
+                    int length = in.readInt();
+
+                    if (length < 0 || offset + 4 + length > size) {
+                        throw new IOException("Invalid record length " + length + " at offset " + offset);
+                    }
+
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+
+                    result.add(bytes);
+                    offset += 4 + length;
+                }
+            } catch (IOException | RuntimeException e) {
+                // the events read before this segment are read again next time
+                result.subList(segment_start, result.size()).clear();
+                this.quarantine(segment);
+
+                throw new IOException("Moved unreadable push spool segment " + segment + " aside", e);
+            }
+        }
+
+        this.pending_segment = segment;
+        this.pending_offset = offset;
+
+        return result;
+    }
+
+    /**
+     * Move an unreadable segment out of the way, dropping its events
+     */
+    private void quarantine(long number) throws IOException {
+        Long size = this.segments.remove(number);
+
+        if (size != null) {
+            long start = number == this.read_segment ? this.read_offset : HEADER_SIZE;
+
+            this.total_bytes -= size;
+            this.dropped_bytes += Math.max(0, size - start);
+            this.dropped_segments++;
+        }
+
+        if (number == this.write_segment && this.output != null) {
+            try {
+                this.output.close();
+            } catch (IOException e) {
+                // it is being thrown away anyway
+            }
+
+            this.output = null;
+        }
+
+        if (number == this.read_segment) {
+            Long next = this.segments.higherKey(number);
+
+            this.read_segment = next == null ? number + 1 : next;
+            this.read_offset = HEADER_SIZE;
+            this.pending_segment = this.read_segment;
+            this.pending_offset = this.read_offset;
+            this.writeCursor();
+        }
+
+        Path file = this.getSegmentFile(number);
+
+        if (Files.exists(file)) {
+            Files.move(file, file.resolveSibling(file.getFileName() + BAD_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * The events returned by the last {@link #read(int)} were sent,
+     * move the cursor past them
+     */
+    public synchronized void commit() throws IOException {
+        this.read_segment = this.pending_segment;
+        this.read_offset = this.pending_offset;
+
+        this.writeCursor();
+
+        while (!this.segments.isEmpty() && this.segments.firstKey() < this.read_segment) {
+            this.deleteSegment(this.segments.firstKey());
+        }
+    }
+
+    /**
+     * Get how many segments with unsent events were dropped,
+     * over the size limit or because they couldn't be read
+     */
+    public synchronized long getDroppedSegments() {
+        return this.dropped_segments;
+    }
+
+    /**
+     * Get human readable statistics
+     */
+    public synchronized List<String> getStats() {
+        List<String> result = new ArrayList<>();
+
+        result.add(" - spool: " + this.getBacklogBytes() / 1024 + " KiB waiting in "
+                + this.segments.size() + " segments, "
+                + this.dropped_bytes / 1024 + " KiB dropped (size limit or unreadable)");
+
+        return result;
+    }
+
+    /**
+     * Close the file being written
+     */
+    public synchronized void close() throws IOException {
+        if (this.output != null) {
+            this.output.close();
+            this.output = null;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package me.lucko.gchat.routing;
+
+import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.player.PlayerChooseInitialServerEvent;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import me.lucko.gchat.GChatPlugin;
+import me.lucko.gchat.config.GChatConfig;
+import me.lucko.gchat.metrics.MetricsStore;
+import me.lucko.gchat.metrics.ServerMetrics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends players to the least loaded server of a group.
+ *
+ * <p>Servers are ranked by the smoothed MSPT their metrics report. A report
+ * only arrives every few seconds, so every player sent to a server since its
+ * last report adds a configured cost to its MSPT; otherwise a burst of logins
+ * would all go to the same server. To keep players from flip-flopping between
+ * servers with about the same MSPT, the server picked last time keeps being
+ * picked until another one is more than the configured hysteresis faster.
+ * Servers that stopped reporting are skipped, unless no server of the group is
+ * reporting at all: then the one with the fewest players is used.</p>
+ */
+public class ServerRouter {
+
+    private final GChatPlugin plugin;
+    private final ProxyServer proxy;
+
+    // the server each group picked last time
+    private final Map<String, String> picks = new ConcurrentHashMap<>();
+
+    // the players sent to each server since its last report, guarded by this
+    private final Map<String, Routed> routed = new HashMap<>();
+
+    public ServerRouter(GChatPlugin plugin) {
+        this.plugin = plugin;
+        this.proxy = plugin.getProxy();
+    }
+
+    @Subscribe
+    public void onChooseInitialServer(PlayerChooseInitialServerEvent event) {
+        String group = this.plugin.getConfig().getRoutingInitialGroup();
+
+        if (group == null) {
+            return;
+        }
+
+        this.pick(group).ifPresent(event::setInitialServer);
+    }
+
+    /**
+     * Resolve a routing target
+     *
+     * @param   target   The name of a routing group, or of a single server
+     */
+    public Optional<RegisteredServer> route(String target) {
+
+        if (this.plugin.getConfig().getRoutingGroups().containsKey(target.toLowerCase())) {
+            return this.pick(target.toLowerCase());
+        }
+
+        return this.proxy.getServer(target);
+    }
+
+    /**
+     * Pick the server of the given group players should be sent to
+     */
+    public synchronized Optional<RegisteredServer> pick(String group) {
+
+        GChatConfig config = this.plugin.getConfig();
+        List<String> members = config.getRoutingGroups().get(group);
+
+        if (members == null) {
+            return Optional.empty();
+        }
+
+        MetricsStore metrics = this.plugin.getMetrics();
+        String previous = this.picks.get(group);
+
+        RegisteredServer best = null;
+        ServerMetrics best_metrics = null;
+        double best_mspt = Double.MAX_VALUE;
+        RegisteredServer previous_server = null;
+        ServerMetrics previous_metrics = null;
+        double previous_mspt = Double.MAX_VALUE;
+        RegisteredServer emptiest = null;
+
+        for (String name : members) {
+            RegisteredServer server = this.proxy.getServer(name).orElse(null);
+
+            if (server == null) {
+                continue;
+            }
+
+            if (emptiest == null || server.getPlayersConnected().size() < emptiest.getPlayersConnected().size()) {
+                emptiest = server;
+            }
+
+            ServerMetrics server_metrics = metrics.getFresh(server.getServerInfo().getName());
+
+            if (server_metrics == null) {
+                continue;
+            }
+
+            double mspt = server_metrics.getMSPT() + this.getRouted(server_metrics) * config.getRoutingPlayerCost();
+
+            if (mspt < best_mspt) {
+                best = server;
+                best_metrics = server_metrics;
+                best_mspt = mspt;
+            }
+
+            if (name.equalsIgnoreCase(previous)) {
+                previous_server = server;
+                previous_metrics = server_metrics;
+                previous_mspt = mspt;
+            }
+        }
+
+        // Nobody in this group reports any metrics
+        if (best == null) {
+            return Optional.ofNullable(emptiest);
+        }
+
+        // Only move away from the previous pick if that clearly pays off
+        if (previous_server != null && previous_mspt - best_mspt <= config.getRoutingHysteresis()) {
+            best = previous_server;
+            best_metrics = previous_metrics;
+        }
+
+        this.picks.put(group, best.getServerInfo().getName());
+        this.routed.put(best_metrics.getServer(), new Routed(best_metrics.getReports(), this.getRouted(best_metrics) + 1));
+
+        return Optional.of(best);
+    }
+
+    /**
+     * Get how many players were sent to a server since its last report
+     */
+    private int getRouted(ServerMetrics metrics) {
+        Routed result = this.routed.get(metrics.getServer());
+
+        if (result == null || result.reports() != metrics.getReports()) {
+            return 0;
+        }
+
+        return result.players();
+    }
+
+    private record Routed(long reports, int players) {
+    }
+}
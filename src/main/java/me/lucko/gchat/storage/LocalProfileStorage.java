@@ -0,0 +1,397 @@
+package me.lucko.gchat.storage;
+
+import com.velocitypowered.api.proxy.Player;
+import me.lucko.gchat.GChatPlugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores profile values in a local append-only log file.
+ *
+ * <p>Every change is appended to the file as a single record. All profiles
+ * are read with one sequential pass when the proxy starts and are then kept
+ * in memory, so reading a value never touches the disk. Once the file holds
+ * many more records than there are live values, it is rewritten with only
+ * the current values.</p>
+ */
+public class LocalProfileStorage implements ProfileStorage {
+
+    private static final int MAGIC = 0x67436850;
+    private static final int VERSION = 1;
+
+    // don't bother compacting small files
+    private static final long COMPACT_MIN_RECORDS = 1024;
+
+    private final GChatPlugin plugin;
+    private final Path file;
+    private final Map<UUID, Map<String, String>> profiles = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    // guards the output stream, and the order of changes in memory and on disk
+    private final Object lock = new Object();
+    private DataOutputStream output = null;
+    private long record_count = 0;
+    private boolean unflushed = false;
+    private boolean recovering = false;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public LocalProfileStorage(GChatPlugin plugin, Path file, long flush_interval_millis) throws IOException {
+        this.plugin = plugin;
+        this.file = file;
+
+        Files.createDirectories(file.getParent());
+
+        boolean complete = this.load();
+
+        synchronized (this.lock) {
+            if (complete) {
+                this.output = open(file, true);
+            } else {
+                this.compact();
+            }
+        }
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gChat Profile Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.executor.scheduleWithFixedDelay(this::flushOutput, flush_interval_millis, flush_interval_millis, TimeUnit.MILLISECONDS);
+        this.executor.scheduleWithFixedDelay(this::compactIfNeeded, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Read all the records in the file, up to the first one that can't be read
+     *
+     * @return   False if the file doesn't exist yet or not all of it could be read
+     */
+    private boolean load() throws IOException {
+
+        if (!Files.exists(this.file)) {
+            return false;
+        }
+
+        long started = System.nanoTime();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file), 64 * 1024))) {
+
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a gChat profile file");
+                }
+
+                int version = in.readInt();
+
+                if (version != VERSION) {
+                    throw new IOException("Unsupported profile file version " + version);
+                }
+            } catch (IOException e) {
+                Path copy = this.keepCorruptCopy();
+
+                this.plugin.getLogger().warn("Could not read " + this.file + ", starting without any stored profiles. "
+                        + "The original file was copied to " + copy.getFileName(), e);
+                return false;
+            }
+
+            try {
+                while (true) {
+                    long most_significant;
+
+                    try {
+                        most_significant = in.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+
+                    UUID uuid = new UUID(most_significant, in.readLong());
+                    String key = in.readUTF();
+                    String value = in.readBoolean() ? in.readUTF() : null;
+
+                    this.apply(uuid, key, value);
+                    this.record_count++;
+                }
+            } catch (EOFException e) {
+                // the proxy stopped while the last record was being written
+                this.plugin.getLogger().warn("The last record in " + this.file + " is incomplete, it will be skipped");
+                return false;
+            } catch (IOException e) {
+                Path copy = this.keepCorruptCopy();
+
+                this.plugin.getLogger().warn("Record " + (this.record_count + 1) + " in " + this.file + " is corrupted, it and everything after it "
+                        + "will be skipped. The original file was copied to " + copy.getFileName(), e);
+                return false;
+            }
+        }
+
+        this.plugin.getLogger().info("Loaded " + this.profiles.size() + " player profiles (" + this.record_count + " records) in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms");
+
+        return true;
+    }
+
+    /**
+     * Copy the file before it is rewritten, so what couldn't be read isn't lost
+     */
+    private Path keepCorruptCopy() throws IOException {
+        Path copy = this.file.resolveSibling(this.file.getFileName() + ".corrupt");
+        Files.copy(this.file, copy, StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+
+    private void apply(UUID uuid, String key, String value) {
+        if (value == null) {
+            Map<String, String> profile = this.profiles.get(uuid);
+
+            if (profile != null) {
+                profile.remove(key);
+            }
+        } else {
+            this.profiles.computeIfAbsent(uuid, k -> new ConcurrentHashMap<>()).put(key, value);
+        }
+    }
+
+    @Override
+    public String getValue(Player player, String key) {
+        Map<String, String> profile = this.profiles.get(player.getUniqueId());
+
+        if (profile == null) {
+            return null;
+        }
+
+        return profile.get(key);
+    }
+
+    @Override
+    public void setValue(Player player, String key, String value) {
+        UUID uuid = player.getUniqueId();
+
+        synchronized (this.lock) {
+            this.apply(uuid, key, value);
+
+            if (this.output == null) {
+                // an earlier compaction failed halfway, the writer rewrites everything including this change
+                this.scheduleRecovery();
+                return;
+            }
+
+            try {
+                writeRecord(this.output, uuid, key, value);
+                this.record_count++;
+                this.unflushed = true;
+                this.writes.increment();
+            } catch (IOException e) {
+                this.failures.increment();
+                this.plugin.getLogger().error("Failed to write the profile of " + player.getUsername(), e);
+            }
+        }
+    }
+
+    /**
+     * Rewrite the file on the writer thread, once the output is gone.
+     * Must be called while holding the lock
+     */
+    private void scheduleRecovery() {
+
+        if (this.recovering) {
+            return;
+        }
+
+        this.recovering = true;
+
+        try {
+            this.executor.execute(() -> {
+                synchronized (this.lock) {
+                    this.recovering = false;
+
+                    if (this.output != null) {
+                        return;
+                    }
+
+                    try {
+                        this.compact();
+                    } catch (IOException e) {
+                        this.failures.increment();
+                        this.plugin.getLogger().error("Failed to rewrite " + this.file, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            this.recovering = false;
+        }
+    }
+
+    @Override
+    public void flush(UUID uuid) {
+        // all profiles share a single file
+        this.executor.execute(this::flushOutput);
+    }
+
+    private void flushOutput() {
+        synchronized (this.lock) {
+            if (!this.unflushed || this.output == null) {
+                return;
+            }
+
+            try {
+                this.output.flush();
+                this.unflushed = false;
+            } catch (IOException e) {
+                this.failures.increment();
+                this.plugin.getLogger().error("Failed to write " + this.file, e);
+            }
+        }
+    }
+
+    private void compactIfNeeded() {
+        synchronized (this.lock) {
+            if (this.record_count < COMPACT_MIN_RECORDS || this.record_count < 2 * this.countValues()) {
+                return;
+            }
+
+            try {
+                this.compact();
+            } catch (IOException e) {
+                this.failures.increment();
+                this.plugin.getLogger().error("Failed to compact " + this.file, e);
+            }
+        }
+    }
+
+    /**
+     * Rewrite the file so it only contains the current values.
+     * Must be called while holding the lock
+     */
+    private void compact() throws IOException {
+        Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        long records = 0;
+
+        try (DataOutputStream out = open(temp, false)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            for (Map.Entry<UUID, Map<String, String>> profile : this.profiles.entrySet()) {
+                for (Map.Entry<String, String> entry : profile.getValue().entrySet()) {
+                    writeRecord(out, profile.getKey(), entry.getKey(), entry.getValue());
+                    records++;
+                }
+            }
+        }
+
+        // some platforms can't replace a file that is still open
+        if (this.output != null) {
+            this.output.close();
+            this.output = null;
+        }
+
+        try {
+            try {
+                Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // keep appending to the old file, it still holds every change
+            Files.deleteIfExists(temp);
+
+            if (Files.exists(this.file)) {
+                this.output = open(this.file, true);
+            }
+
+            throw e;
+        }
+
+        this.output = open(this.file, true);
+        this.record_count = records;
+        this.unflushed = false;
+        this.compactions.increment();
+    }
+
+    private long countValues() {
+        long result = 0;
+
+        for (Map<String, String> profile : this.profiles.values()) {
+            result += profile.size();
+        }
+
+        return result;
+    }
+
+    private static DataOutputStream open(Path path, boolean append) throws IOException {
+        StandardOpenOption mode = append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)));
+    }
+
+    private static void writeRecord(DataOutputStream out, UUID uuid, String key, String value) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+        out.writeUTF(key);
+        out.writeBoolean(value != null);
+
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    @Override
+    public List<String> getStats() {
+        List<String> result = new ArrayList<>();
+
+        synchronized (this.lock) {
+            result.add("Local profiles: " + this.profiles.size() + " profiles, "
+                    + this.record_count + " records in " + this.file.getFileName() + ", "
+                    + this.writes.sum() + " writes, "
+                    + this.compactions.sum() + " compactions, "
+                    + this.failures.sum() + " failed");
+        }
+
+        return result;
+    }
+
+    @Override
+    public void shutdown() {
+        this.executor.shutdown();
+
+        try {
+            this.executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this.lock) {
+            if (this.output == null) {
+                return;
+            }
+
+            try {
+                this.output.close();
+            } catch (IOException e) {
+                this.plugin.getLogger().error("Failed to write " + this.file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package me.lucko.gchat.storage;
+
+import com.velocitypowered.api.proxy.Player;
+import me.lucko.gchat.GChatPlugin;
+import net.luckperms.api.LuckPerms;
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.node.NodeType;
+import net.luckperms.api.node.types.MetaNode;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Stores profile values as LuckPerms meta nodes.
+ * Changes are applied to the in-memory user right away, saving them is batched
+ */
+public class LuckPermsProfileStorage implements ProfileStorage {
+
+    private final LuckPerms luckperms;
+    private final MetaWriteQueue write_queue;
+
+    public LuckPermsProfileStorage(GChatPlugin plugin, LuckPerms luckperms, long flush_interval_millis) {
+        this.luckperms = luckperms;
+        this.write_queue = new MetaWriteQueue(plugin, luckperms, flush_interval_millis);
+    }
+
+    @Override
+    public String getValue(Player player, String key) {
+        return this.luckperms.getPlayerAdapter(Player.class).getMetaData(player).getMetaValue(key);
+    }
+
+    @Override
+    public void setValue(Player player, String key, String value) {
+        User user = this.luckperms.getPlayerAdapter(Player.class).getUser(player);
+
+        // clear any existing meta nodes with the same key - we want to override
+        user.data().clear(NodeType.META.predicate(mn -> mn.getMetaKey().equals(key)));
+
+        if (value != null) {
+            MetaNode value_node = MetaNode.builder(key, value).build();
+            user.data().add(value_node);
+        }
+
+        this.write_queue.markDirty(user);
+    }
+
+    @Override
+    public void flush(UUID uuid) {
+        this.write_queue.flush(uuid);
+    }
+
+    @Override
+    public List<String> getStats() {
+        return this.write_queue.getStats();
+    }
+
+    @Override
+    public void shutdown() {
+        this.write_queue.shutdown();
+    }
+}
@@ -0,0 +1,144 @@
+package me.lucko.gchat.storage;
+
+import me.lucko.gchat.GChatPlugin;
+import net.luckperms.api.LuckPerms;
+import net.luckperms.api.model.user.User;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Saves changed LuckPerms users in the background.
+ *
+ * <p>Meta changes are applied to the in-memory user right away, the user is
+ * only marked as dirty here. Dirty users are saved in one batch every flush
+ * interval, so a player changing their nickname ten times in a row results
+ * in a single storage write.</p>
+ */
+public class MetaWriteQueue {
+
+    private final GChatPlugin plugin;
+    private final LuckPerms luckperms;
+    private final ScheduledExecutorService executor;
+    private final Map<UUID, User> dirty = new ConcurrentHashMap<>();
+
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder saves = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public MetaWriteQueue(GChatPlugin plugin, LuckPerms luckperms, long flush_interval_millis) {
+        this.plugin = plugin;
+        this.luckperms = luckperms;
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gChat Meta Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.executor.scheduleWithFixedDelay(this::flushAll, flush_interval_millis, flush_interval_millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Mark the given user as changed, it will be saved with the next batch
+     */
+    public void markDirty(User user) {
+        this.changes.increment();
+        this.dirty.put(user.getUniqueId(), user);
+    }
+
+    /**
+     * Save the given user now, if it has unsaved changes (used when a player logs out)
+     */
+    public void flush(UUID uuid) {
+        User user = this.dirty.remove(uuid);
+
+        if (user == null) {
+            return;
+        }
+
+        try {
+            this.executor.execute(() -> this.save(List.of(user)));
+        } catch (RejectedExecutionException e) {
+            this.save(List.of(user));
+        }
+    }
+
+    /**
+     * Save all users with unsaved changes
+     */
+    public void flushAll() {
+        List<User> batch = new ArrayList<>();
+
+        Iterator<User> iterator = this.dirty.values().iterator();
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+
+        if (!batch.isEmpty()) {
+            this.save(batch);
+        }
+    }
+
+    private void save(List<User> batch) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(batch.size());
+
+        for (User user : batch) {
+            futures.add(this.luckperms.getUserManager().saveUser(user).whenComplete((ignored, throwable) -> {
+                if (throwable != null) {
+                    this.failures.increment();
+                    this.plugin.getLogger().error("Failed to save the profile of " + user.getUsername(), throwable);
+                } else {
+                    this.saves.increment();
+                }
+            }));
+        }
+
+        // wait for the batch, so batches never overlap
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (Exception e) {
+            // already logged per user
+        }
+    }
+
+    /**
+     * Get human readable statistics
+     */
+    public List<String> getStats() {
+        List<String> result = new ArrayList<>();
+
+        result.add("Meta writes: " + this.changes.sum() + " changes, "
+                + this.saves.sum() + " saves, "
+                + this.dirty.size() + " pending, "
+                + this.failures.sum() + " failed");
+
+        return result;
+    }
+
+    /**
+     * Save everything that is still pending and stop the background thread
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+
+        try {
+            this.executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.flushAll();
+    }
+}
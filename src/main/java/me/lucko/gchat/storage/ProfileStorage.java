@@ -0,0 +1,47 @@
+package me.lucko.gchat.storage;
+
+import com.velocitypowered.api.proxy.Player;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Where player profile values (nickname, pronouns, timezone, ...) are stored
+ */
+public interface ProfileStorage {
+
+    /**
+     * Get a profile value of the given player
+     *
+     * @param   player   The player
+     * @param   key      The name of the value, like "nickname"
+     *
+     * @return  The value, or null if it isn't set
+     */
+    String getValue(Player player, String key);
+
+    /**
+     * Set a profile value of the given player.
+     * The new value is visible right away, but may be persisted later
+     *
+     * @param   player   The player
+     * @param   key      The name of the value
+     * @param   value    The new value, or null to remove it
+     */
+    void setValue(Player player, String key, String value);
+
+    /**
+     * Persist any pending changes of the given player (used when they log out)
+     */
+    void flush(UUID uuid);
+
+    /**
+     * Get human readable statistics
+     */
+    List<String> getStats();
+
+    /**
+     * Persist everything that is still pending and release any resources
+     */
+    void shutdown();
+}
@@ -1,10 +1,8 @@
 package me.lucko.gchat.tab;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.connection.DisconnectEvent;
-import com.velocitypowered.api.event.player.ServerConnectedEvent;
+import com.velocitypowered.api.event.player.ServerPostConnectEvent;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
 import com.velocitypowered.api.proxy.ServerConnection;
@@ -13,6 +11,7 @@ import com.velocitypowered.api.proxy.player.TabListEntry;
 import me.lucko.gchat.GChatPlayer;
 import me.lucko.gchat.GChatPlugin;
 import me.lucko.gchat.config.GChatConfig;
+import me.lucko.gchat.placeholder.PlaceholderTemplate;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.TextComponent;
 import net.kyori.adventure.text.format.NamedTextColor;
@@ -20,6 +19,8 @@ import net.kyori.adventure.text.format.Style;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class GChatTabList {
 
@@ -30,7 +31,16 @@ public class GChatTabList {
 
     private String tablist_header = null;
     private String tablist_footer = null;
-    private int update_counter = 0;
+
+    // compiled once per change of the text above, then rendered for every player
+    private PlaceholderTemplate header_template = null;
+    private PlaceholderTemplate footer_template = null;
+
+    // What was last sent to each player, so unchanged entries can be skipped
+    private final Map<UUID, ViewerState> viewers = new ConcurrentHashMap<>();
+
+    // The formatted tab entry of each player, shared by all viewers
+    private final Map<UUID, TabDisplay> displays = new ConcurrentHashMap<>();
 
     public GChatTabList(GChatPlugin plugin, ProxyServer proxy_server) {
         this.proxy_server = proxy_server;
@@ -39,20 +49,42 @@ public class GChatTabList {
     }
 
     @Subscribe
-    public void connect(ServerConnectedEvent event) {
-        update();
+    public void connect(ServerPostConnectEvent event) {
+        Player player = event.getPlayer();
+
+        // Velocity has just cleared this player's tablist, so forget what they were sent.
+        // Only this player's own tablist and their entry in the other tablists need updating
+        this.viewers.remove(player.getUniqueId());
+        this.displays.remove(player.getUniqueId());
+        this.updatePlayer(player);
     }
 
     @Subscribe
     public void disconnect(DisconnectEvent event) {
-        update();
+        this.removePlayer(event.getPlayer());
+    }
+
+    /**
+     * Forget the formatted tab entry of the given player,
+     * so it is formatted again on the next update
+     */
+    public void invalidateDisplay(UUID uuid) {
+        this.displays.remove(uuid);
+    }
+
+    /**
+     * Forget all formatted tab entries
+     */
+    public void invalidateDisplays() {
+        this.displays.clear();
     }
 
     /**
      * Update the Tablist's header and footer.
-     * This does a first pass of replacing non-player placeholders
+     * This does a first pass of replacing non-player placeholders,
+     * and compiles the result when it changed
      */
-    public void updateHeaderAndFooter() {
+    public synchronized void updateHeaderAndFooter() {
 
         GChatConfig config = this.plugin.getConfig();
 
@@ -60,133 +92,233 @@ public class GChatTabList {
             return;
         }
 
-        this.tablist_header = config.getTablistHeader();
-        this.tablist_footer = config.getTablistFooter();
+        String header = config.getTablistHeader();
+        String footer = config.getTablistFooter();
+
+        if (header != null) {
+            header = plugin.replaceGenericPlaceholders(header);
+        }
+
+        if (footer != null) {
+            footer = plugin.replaceGenericPlaceholders(footer);
+        }
 
-        if (this.tablist_header != null) {
-            this.tablist_header = plugin.replaceGenericPlaceholders(this.tablist_header);
+        if (!Objects.equals(header, this.tablist_header)) {
+            this.tablist_header = header;
+            this.header_template = PlaceholderTemplate.compile(header);
         }
 
-        if (this.tablist_footer != null) {
-            this.tablist_footer = plugin.replaceGenericPlaceholders(this.tablist_footer);
+        if (!Objects.equals(footer, this.tablist_footer)) {
+            this.tablist_footer = footer;
+            this.footer_template = PlaceholderTemplate.compile(footer);
         }
     }
 
-    public void update() {
+    public synchronized void update() {
         this.updateHeaderAndFooter();
         this.updatePlayers();
+    }
 
-        this.update_counter++;
+    /**
+     * Update the players in the tablist.
+     * Only the header, footer and entries that actually changed since the last update are sent.
+     * Must be called while holding the lock, like {@link #update()} does
+     */
+    private Boolean updatePlayers() {
+
+        boolean players_changed = false;
 
-        // Send the playerlist every 2 minutes
-        if (this.update_counter > 120) {
-            this.sendPlayerList();
-            this.update_counter = 0;
+        Collection<Player> players = this.proxy_server.getAllPlayers();
+
+        for (Player player : players) {
+            if (this.updateViewer(player, players)) {
+                players_changed = true;
+            }
         }
+
+        return players_changed;
     }
 
     /**
-     * Send the playerlist to the remote endpoint
+     * Update everything concerning a single player:
+     * their own tablist, and their entry in everyone else's tablist
      */
-    public void sendPlayerList() {
+    public synchronized void updatePlayer(Player player) {
 
-        if (!GChatPlugin.shouldPushEvents()) {
-            return;
-        }
+        this.updateHeaderAndFooter();
+
+        Collection<Player> players = this.proxy_server.getAllPlayers();
+        UUID uuid = player.getUniqueId();
 
-        JsonObject event_data = GChatPlugin.createObject("players");
-        JsonArray event_list = new JsonArray();
+        this.updateViewer(player, players);
 
-        for (Player player : this.proxy_server.getAllPlayers()) {
+        for (Player viewer : players) {
+
+            if (viewer.getUniqueId().equals(uuid)) {
+                continue;
+            }
 
-            ServerConnection connection = player.getCurrentServer().orElse(null);
+            TabList tablist = viewer.getTabList();
+            ViewerState state = this.viewers.computeIfAbsent(viewer.getUniqueId(), key -> new ViewerState());
 
+            TabListEntry entry = null;
+
+            for (TabListEntry current : tablist.getEntries()) {
+                if (current.getProfile().getId().equals(uuid)) {
+                    entry = current;
+                    break;
+                }
+            }
 
-            JsonObject temp = GChatPlugin.createObject("list", player);
-            event_list.add(temp.getAsJsonObject("player"));
+            this.updateEntry(viewer, tablist, state, player, entry);
         }
+    }
+
+    /**
+     * Remove the given player from everyone's tablist
+     */
+    public synchronized void removePlayer(Player player) {
+
+        UUID uuid = player.getUniqueId();
+
+        this.viewers.remove(uuid);
+        this.displays.remove(uuid);
 
-        event_data.add("players", event_list);
-        GChatPlugin.pushEvent(event_data);
+        for (Player viewer : this.proxy_server.getAllPlayers()) {
+
+            if (viewer.getUniqueId().equals(uuid)) {
+                continue;
+            }
+
+            viewer.getTabList().removeEntry(uuid);
+
+            ViewerState state = this.viewers.get(viewer.getUniqueId());
+
+            if (state != null) {
+                state.entries.remove(uuid);
+            }
+        }
     }
 
     /**
-     * Update the players in the tablist
+     * Update the tablist of a single player
+     *
+     * @param   player    The owner of the tablist
+     * @param   players   All the players that should be in it
+     *
+     * @return  True if entries were added or removed
      */
-    public Boolean updatePlayers() {
+    private boolean updateViewer(Player player, Collection<Player> players) {
 
         boolean players_changed = false;
 
-        LegacyComponentSerializer legacy = LegacyComponentSerializer.legacyAmpersand();
+        // Get this player's tablist
+        TabList tablist = player.getTabList();
+        ViewerState state = this.viewers.computeIfAbsent(player.getUniqueId(), uuid -> new ViewerState());
 
-        for (Player player : this.proxy_server.getAllPlayers()) {
+        // If a tablist header/footer is set, add it now
+        if (this.tablist_header != null || this.tablist_footer != null) {
 
-            // Get this player's tablist
-            TabList tablist = player.getTabList();
+            String header = "";
+            String footer = "";
 
-            // If a tablist header/footer is set, add it now
-            if (this.tablist_header != null || this.tablist_footer != null) {
+            if (this.header_template != null) {
+                header = plugin.renderTemplate(player, this.header_template, null);
+            }
 
-                String header = "";
-                String footer = "";
+            if (this.footer_template != null) {
+                footer = plugin.renderTemplate(player, this.footer_template, null);
+            }
 
-                if (this.tablist_header != null) {
-                    header = plugin.replacePlaceholders(player, this.tablist_header);
-                }
+            if (!header.equals(state.header) || !footer.equals(state.footer)) {
+                LegacyComponentSerializer legacy = LegacyComponentSerializer.legacyAmpersand();
+                tablist.setHeaderAndFooter(legacy.deserialize(header), legacy.deserialize(footer));
+                state.header = header;
+                state.footer = footer;
+            }
+        }
 
-                if (this.tablist_footer != null) {
-                    footer = plugin.replacePlaceholders(player, this.tablist_footer);
-                }
+        Map<UUID, TabListEntry> current_entries = new HashMap<>();
+        for (TabListEntry entry : tablist.getEntries()) {
+            current_entries.put(entry.getProfile().getId(), entry);
+        }
 
-                tablist.setHeaderAndFooter(legacy.deserialize(header), legacy.deserialize(footer));
+        // Now iterate over all the other players
+        for (Player other_player : players) {
+            if (this.updateEntry(player, tablist, state, other_player, current_entries.remove(other_player.getUniqueId()))) {
+                players_changed = true;
             }
+        }
+
+        // Whatever is left belongs to players that are no longer online
+        for (UUID uuid : current_entries.keySet()) {
+            if (proxy_server.getPlayer(uuid).isEmpty()) {
+                tablist.removeEntry(uuid);
+                players_changed = true;
+            }
+        }
+
+        state.entries.keySet().removeIf(uuid -> !tablist.containsEntry(uuid));
+
+        return players_changed;
+    }
 
-            // Now iterate over all the other players
-            for (Player other_player : this.proxy_server.getAllPlayers()) {
+    /**
+     * Add or update the entry of other_player in the tablist of player
+     *
+     * @param   entry   The current entry of other_player, or null if it isn't in the tablist
+     *
+     * @return  True if the entry had to be added
+     */
+    private boolean updateEntry(Player player, TabList tablist, ViewerState state, Player other_player, TabListEntry entry) {
 
-                // If this other_player is not in the tablist of the current player...
-                if (!tablist.containsEntry(other_player.getUniqueId())) {
-                    players_changed = true;
+        UUID other_uuid = other_player.getUniqueId();
 
-                    Component display_name = this.getPlayerTabDisplay(other_player, player);
+        Component display_name = this.getPlayerTabDisplay(other_player, player);
+        int latency = (int) other_player.getPing();
 
-                    TabListEntry entry = TabListEntry.builder()
-                            // Setting a displayname here will only work if the players are on different servers
-                            //.displayName(display_name)
-                            .profile(other_player.getGameProfile())
-                            .gameMode(0) // Impossible to get player game mode from proxy, always assume survival
-                            .tabList(tablist)
-                            .build();
+        // If this other_player is not in the tablist of the current player...
+        if (entry == null) {
+            entry = TabListEntry.builder()
+                    // Setting a displayname here will only work if the players are on different servers
+                    //.displayName(display_name)
+                    .profile(other_player.getGameProfile())
+                    .gameMode(0) // Impossible to get player game mode from proxy, always assume survival
+                    .latency(latency)
+                    .tabList(tablist)
+                    .build();
 
-                    entry.setDisplayName(display_name);
-                    tablist.addEntry(entry);
-                }
-            }
+            entry.setDisplayName(display_name);
+            tablist.addEntry(entry);
 
-            // Now iterate over all the tablist entries again!
-            for (TabListEntry entry : tablist.getEntries()) {
-                UUID uuid = entry.getProfile().getId();
+            state.entries.put(other_uuid, new EntryState(display_name, latency));
+            return true;
+        }
 
-                // See if this player is still online
-                Optional<Player> playerOptional = proxy_server.getPlayer(uuid);
+        EntryState entry_state = state.entries.get(other_uuid);
 
-                // If the player is still present, update it
-                if (playerOptional.isPresent()) {
-                    Player other_player = playerOptional.get();
+        // The entry was added by someone else (like the backend server), so we don't know what it shows
+        if (entry_state == null) {
+            entry.setLatency(latency);
+            entry.setDisplayName(display_name);
+            state.entries.put(other_uuid, new EntryState(display_name, latency));
+            return false;
+        }
 
-                    // Update ping
-                    entry.setLatency((int) (other_player.getPing()));
+        // the ping changes with every keep-alive, only send changes the client would notice
+        int ping_bucket = this.plugin.getConfig().getTablistPingBucket();
 
-                    Component display_name = this.getPlayerTabDisplay(other_player, player);
-                    entry.setDisplayName(display_name);
-                } else {
-                    player.getTabList().removeEntry(uuid);
-                    players_changed = true;
-                }
-            }
+        if (entry_state.latency / ping_bucket != latency / ping_bucket) {
+            entry.setLatency(latency);
+            entry_state.latency = latency;
         }
 
-        return players_changed;
+        if (!Objects.equals(entry_state.display_name, display_name)) {
+            entry.setDisplayName(display_name);
+            entry_state.display_name = display_name;
+        }
+
+        return false;
     }
 
     /**
@@ -200,32 +332,55 @@ public class GChatTabList {
      */
     public Component getPlayerTabDisplay(Player other_player, Player current_player) {
 
-        GChatPlayer gplayer = GChatPlayer.get(other_player);
+        TabDisplay display = this.getTabDisplay(other_player);
 
-        TextComponent display_name = gplayer.format("tab-entry", null);
+        if (display.server_name == null) {
+            return display.same_server;
+        }
+
+        ServerConnection current_connection = current_player.getCurrentServer().orElse(null);
 
-        if (display_name == null) {
-            return null;
+        if (current_connection != null && display.server_name.equals(current_connection.getServer().getServerInfo().getName())) {
+            return display.same_server;
         }
 
-        ServerConnection other_connection = other_player.getCurrentServer().orElse(null);
+        return display.other_server;
+    }
 
-        if (other_connection != null) {
-            String server_name = other_connection.getServer().getServerInfo().getName();
+    /**
+     * Get the formatted tab entry variants of the given player.
+     * They are only formatted again when the player switched servers,
+     * the entry was invalidated or it is older than the configured refresh time
+     */
+    private TabDisplay getTabDisplay(Player player) {
 
-            String current_server_name = null;
-            ServerConnection current_connection = current_player.getCurrentServer().orElse(null);
+        String server_name = null;
+        ServerConnection connection = player.getCurrentServer().orElse(null);
 
-            if (current_connection != null) {
-                current_server_name = current_connection.getServer().getServerInfo().getName();
-            }
+        if (connection != null) {
+            server_name = connection.getServer().getServerInfo().getName();
+        }
 
-            if (!server_name.equals(current_server_name)) {
-                display_name = display_name.append(Component.text(" (" + server_name + ")").style(Style.style(NamedTextColor.GRAY)));
-            }
+        long now = System.nanoTime();
+        long max_age = TimeUnit.SECONDS.toNanos(this.plugin.getConfig().getTablistEntryRefresh());
+        TabDisplay display = this.displays.get(player.getUniqueId());
+
+        if (display != null && Objects.equals(display.server_name, server_name) && now - display.created < max_age) {
+            return display;
+        }
+
+        GChatPlayer gplayer = GChatPlayer.get(player);
+        TextComponent same_server = gplayer.format("tab-entry", null);
+        Component other_server = same_server;
+
+        if (same_server != null && server_name != null) {
+            other_server = same_server.append(Component.text(" (" + server_name + ")").style(Style.style(NamedTextColor.GRAY)));
         }
 
-        return display_name;
+        display = new TabDisplay(server_name, same_server, other_server, now);
+        this.displays.put(player.getUniqueId(), display);
+
+        return display;
     }
 
     public static void insertIntoTabListCleanly(TabList list, TabListEntry entry) {
@@ -254,4 +409,40 @@ public class GChatTabList {
         }
     }
 
+    /**
+     * What has been sent to a single player's tablist
+     */
+    private static class ViewerState {
+        private String header = null;
+        private String footer = null;
+        private final Map<UUID, EntryState> entries = new HashMap<>();
+    }
+
+    /**
+     * The tab entry of a single player, as seen from the same and from another server
+     */
+    private static class TabDisplay {
+        private final String server_name;
+        private final Component same_server;
+        private final Component other_server;
+        private final long created;
+
+        private TabDisplay(String server_name, Component same_server, Component other_server, long created) {
+            this.server_name = server_name;
+            this.same_server = same_server;
+            this.other_server = other_server;
+            this.created = created;
+        }
+    }
+
+    private static class EntryState {
+        private Component display_name;
+        private int latency;
+
+        private EntryState(Component display_name, int latency) {
+            this.display_name = display_name;
+            this.latency = latency;
+        }
+    }
+
 }
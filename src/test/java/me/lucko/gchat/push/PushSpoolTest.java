@@ -0,0 +1,253 @@
+package me.lucko.gchat.push;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PushSpoolTest {
+
+    // the fixed size of the test events, plus their length prefix
+    private static final int EVENT_SIZE = 1000;
+    private static final int RECORD_SIZE = 4 + EVENT_SIZE;
+    private static final int HEADER_SIZE = 8;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void readsEventsInOrderAcrossSegments() throws IOException {
+        PushSpool spool = new PushSpool(this.directory, 1024 * 1024);
+        spool.append(events(0, 200));
+
+        assertTrue(segments().size() > 1);
+        assertEquals(range(0, 200), ids(readAll(spool)));
+        assertTrue(spool.isEmpty());
+        assertEquals(1, segments().size());
+
+        spool.close();
+    }
+
+    @Test
+    public void keepsCursorAcrossRestarts() throws IOException {
+        PushSpool spool = new PushSpool(this.directory, 1024 * 1024);
+        spool.append(events(0, 100));
+
+        assertEquals(range(0, 30), ids(spool.read(30)));
+        spool.commit();
+
+        // read, but not committed, so sent again after the restart
+        assertEquals(range(30, 40), ids(spool.read(10)));
+        spool.close();
+
+        spool = new PushSpool(this.directory, 1024 * 1024);
+        assertEquals(range(30, 100), ids(readAll(spool)));
+        spool.close();
+    }
+
+    @Test
+    public void cutsOffTruncatedTail() throws IOException {
+        PushSpool spool = new PushSpool(this.directory, 1024 * 1024);
+        spool.append(events(0, 10));
+        spool.close();
+
+        Path segment = segments().get(0);
+        long size = Files.size(segment);
+
+        try (RandomAccessFile raf = new RandomAccessFile(segment.toFile(), "rw")) {
+            raf.setLength(size - EVENT_SIZE / 2);
+        }
+
+        spool = new PushSpool(this.directory, 1024 * 1024);
+        assertEquals(HEADER_SIZE + 9 * RECORD_SIZE, Files.size(segment));
+
+        // new events go after the repaired records
+        spool.append(events(10, 11));
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 10), ids(readAll(spool)));
+        assertEquals(0, spool.getDroppedSegments());
+        spool.close();
+    }
+
+    @Test
+    public void cutsOffTruncatedLengthPrefix() throws IOException {
+        PushSpool spool = new PushSpool(this.directory, 1024 * 1024);
+        spool.append(events(0, 3));
+        spool.close();
+
+        Path segment = segments().get(0);
+
+        try (RandomAccessFile raf = new RandomAccessFile(segment.toFile(), "rw")) {
+            raf.setLength(HEADER_SIZE + 3 * RECORD_SIZE + 2);
+        }
+
+        spool = new PushSpool(this.directory, 1024 * 1024);
+        assertEquals(HEADER_SIZE + 3 * RECORD_SIZE, Files.size(segment));
+        assertEquals(range(0, 3), ids(readAll(spool)));
+        spool.close();
+    }
+
+    @Test
+    public void deletesSegmentWithoutHeader() throws IOException {
+        PushSpool spool = new PushSpool(this.directory, 1024 * 1024);
+        spool.append(events(0, 5));
+        spool.close();
+
+        Path empty = this.directory.resolve(String.format("%016d.seg", 2));
+        Files.write(empty, new byte[]{0x67, 0x43});
+
+        spool = new PushSpool(this.directory, 1024 * 1024);
+        assertFalse(Files.exists(empty));
+        assertEquals(range(0, 5), ids(readAll(spool)));
+        spool.close();
+    }
+
+    @Test
+    public void quarantinesSegmentWithBadLength() throws IOException {
+        assertQuarantined(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void quarantinesSegmentWithNegativeLength() throws IOException {
+        assertQuarantined(-1);
+    }
+
+    private void assertQuarantined(int length) throws IOException {
+        PushSpool spool = new PushSpool(this.directory, 1024 * 1024);
+        spool.append(events(0, 100));
+        spool.close();
+
+        List<Path> segments = segments();
+        assertTrue(segments.size() > 1);
+
+        Path first = segments.get(0);
+        int in_first = (int) ((Files.size(first) - HEADER_SIZE) / RECORD_SIZE);
+
+        // the last segment is repaired on load, so break the first one
+        try (RandomAccessFile raf = new RandomAccessFile(first.toFile(), "rw")) {
+            raf.seek(HEADER_SIZE + 2 * RECORD_SIZE);
+            raf.writeInt(length);
+        }
+
+        spool = new PushSpool(this.directory, 1024 * 1024);
+        PushSpool loaded = spool;
+        assertThrows(IOException.class, () -> loaded.read(500));
+
+        assertFalse(Files.exists(first));
+        assertTrue(Files.exists(first.resolveSibling(first.getFileName() + ".bad")));
+        assertEquals(1, spool.getDroppedSegments());
+
+        // the rest of the spool is still sent, and the cursor moved past the bad segment
+        assertEquals(range(in_first, 100), ids(spool.read(500)));
+        spool.close();
+
+        spool = new PushSpool(this.directory, 1024 * 1024);
+        assertEquals(range(in_first, 100), ids(readAll(spool)));
+        spool.close();
+    }
+
+    @Test
+    public void dropsOldestSegmentsOverLimit() throws IOException {
+        long max_bytes = 200 * 1024;
+        PushSpool spool = new PushSpool(this.directory, max_bytes);
+
+        for (int i = 0; i < 500; i += 50) {
+            spool.append(events(i, i + 50));
+        }
+
+        long total = 0;
+        for (Path segment : segments()) {
+            total += Files.size(segment);
+        }
+
+        assertTrue(total <= max_bytes);
+        assertTrue(spool.getDroppedSegments() > 0);
+
+        // the newest events are kept, in order and without gaps
+        List<Integer> ids = ids(readAll(spool));
+        assertFalse(ids.isEmpty());
+        assertTrue(ids.get(0) > 0);
+        assertEquals(range(ids.get(0), 500), ids);
+        spool.close();
+    }
+
+    @Test
+    public void dropsUnsentEventsOfReadSegmentOverLimit() throws IOException {
+        long max_bytes = 200 * 1024;
+        PushSpool spool = new PushSpool(this.directory, max_bytes);
+        spool.append(events(0, 100));
+
+        // a batch is being sent while the oldest segment is dropped
+        assertEquals(range(0, 10), ids(spool.read(10)));
+        spool.append(events(100, 500));
+        spool.commit();
+
+        List<Integer> ids = ids(readAll(spool));
+        assertTrue(ids.get(0) > 10);
+        assertEquals(range(ids.get(0), 500), ids);
+        spool.close();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".seg")).sorted().toList();
+        }
+    }
+
+    private static List<byte[]> readAll(PushSpool spool) throws IOException {
+        List<byte[]> result = new ArrayList<>();
+
+        while (true) {
+            List<byte[]> batch = spool.read(25);
+
+            if (batch.isEmpty()) {
+                return result;
+            }
+
+            result.addAll(batch);
+            spool.commit();
+        }
+    }
+
+    private static List<byte[]> events(int from, int to) {
+        List<byte[]> result = new ArrayList<>();
+
+        for (int i = from; i < to; i++) {
+            result.add(ByteBuffer.allocate(EVENT_SIZE).putInt(i).array());
+        }
+
+        return result;
+    }
+
+    private static List<Integer> ids(List<byte[]> events) {
+        List<Integer> result = new ArrayList<>();
+
+        for (byte[] bytes : events) {
+            assertEquals(EVENT_SIZE, bytes.length);
+            result.add(ByteBuffer.wrap(bytes).getInt());
+        }
+
+        return result;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> result = new ArrayList<>();
+
+        for (int i = from; i < to; i++) {
+            result.add(i);
+        }
+
+        return result;
+    }
+}